@@ -20,6 +20,37 @@
 //  - In source program, base classes are defined before their subclasses.
 //    (hence a simple sequential processing of class decls is sufficient)
 //
+// Options:
+//  -cptr  Compressed pointers: object-typed fields are laid out as 4-byte
+//         heap offsets instead of 8-byte pointers.
+//  -inline[=size[,depth]]
+//         Inline small direct calls (ir.Inliner), with optional budgets.
+//  -escape
+//         Replace non-escaping objects with locals (ir.EscapeAnalysis).
+//  -tailcall
+//         Turn self-recursive tail calls into loops (ir.TailCalls).
+//  -dme   Skip codegen for methods not reachable from main.
+//  -printbuf
+//         Merge adjacent prints into _printBuf calls (ir.PrintCoalesce);
+//         run the output with ir.Interp, which provides _printBuf.
+//  -irb   Write the IR in binary form (ir.IRBinary) instead of text;
+//         run the output with ir.Interp, which reads it.
+//  -ssa   Take the IR through SSA form and back (ir.SSA).
+//  -sccp  Sparse conditional constant propagation (ir.SCCP), in SSA form.
+//  -copyprop
+//         Copy propagation and move coalescing (ir.CopyProp), in SSA form.
+//  -gvn   Global value numbering / CSE (ir.GVN), in SSA form.
+//  -licm  Loop-invariant code motion (ir.LICM), in SSA form.
+//  -ivsr  Induction-variable strength reduction (ir.IndVars), in SSA form.
+//  -dce   Mark-and-sweep dead code elimination (ir.DCE), in SSA form.
+//  -mergefuncs
+//         Merge structurally equal functions into one (ir.FuncHash).
+//  -v     Report what the IR passes did on stderr.
+//
+// An input file ending in ".ir" is read as IR text (ir.IRReader), and one
+// ending in ".irb" as binary IR (ir.IRBinary); either only goes through
+// the IR passes.
+//
 import java.util.*;
 import java.io.*;
 import ast.*;
@@ -142,29 +173,255 @@ public class IRGen {
   static HashMap<String, ClassInfo> classEnv 	// a map for all ClassInfos
             = new HashMap<String, ClassInfo>();
 
-  static IR.Id thisObj = new IR.Id("obj");	// the "current" object
+  static IR.Regs regs = new IR.Regs();		// the current method's registers
+  static IR.Id thisObj = regs.id("obj");	// the "current" object
+
+  static boolean compressedPtrs = false;	// set by "-cptr"
+  static boolean inline = false;		// set by "-inline"
+  static boolean escape = false;		// set by "-escape"
+  static boolean tailcall = false;		// set by "-tailcall"
+  static boolean verbose = false;		// set by "-v"
+  static boolean dme = false;			// set by "-dme"
+  static boolean printbuf = false;		// set by "-printbuf"
+  static boolean mergefuncs = false;		// set by "-mergefuncs"
+  static boolean irb = false;			// set by "-irb"
+  static boolean ssa = false;			// set by "-ssa" and the SSA passes
+  static boolean sccp = false;			// set by "-sccp"
+  static boolean copyprop = false;		// set by "-copyprop"
+  static boolean gvn = false;			// set by "-gvn"
+  static boolean licm = false;			// set by "-licm"
+  static boolean ivsr = false;			// set by "-ivsr"
+  static boolean dce = false;			// set by "-dce"
+
+  // Exp class table
+  // ---------------
+  // The resolved ClassInfo of every object-valued expression in the
+  // current method, filled in once by the typing pass (annotate) so that
+  // codegen does not re-walk env/classEnv/fieldType for each use.
+  //
+  static IdentityHashMap<Ast.Exp, ClassInfo> expClass 
+            = new IdentityHashMap<Ast.Exp, ClassInfo>();
 
   // Return an object's base ClassInfo.
   //
   static ClassInfo getClassInfo(Ast.Exp obj, ClassInfo cinfo, 
                     Env env) throws Exception {
-    ClassInfo info = null;
-    if (obj instanceof Ast.This) {
-      info = cinfo;
-    } else if (obj instanceof Ast.Id) {
-      String nm = ((Ast.Id) obj).nm;
-      Ast.ObjType type = (Ast.ObjType) env.get(nm);
-      info = classEnv.get(type.nm);
-    } else if (obj instanceof Ast.Field) {
-      info = getClassInfo(((Ast.Field) obj).obj, cinfo, env);
-      Ast.ObjType type = (Ast.ObjType) info.fieldType(((Ast.Field) obj).nm);
-      info = classEnv.get(type.nm);
-    } else {
+    if (obj instanceof Ast.This)	// the receiver is the current class
+      return cinfo;
+    ClassInfo info = expClass.get(obj);
+    if (info == null)			// not seen by the typing pass
+      info = annotate(obj, cinfo, env);
+    if (info == null)
       throw new GenException("Unexpected obj epxression " + obj);
+    return info;
+  }
+
+  // Return the ClassInfo of an object type (null for non-object types).
+  //
+  static ClassInfo classOf(Ast.Type t) {
+    if (t instanceof Ast.ObjType)
+      return classEnv.get(((Ast.ObjType) t).nm);
+    return null;
+  }
+
+  //------------------------------------------------------------------------------
+  // Typing Pass
+  //------------
+  //  Walks a method body once before its codegen and records the ClassInfo
+  //  of each object-valued expression in expClass.
+  //
+  static void annotate(Ast.MethodDecl n, ClassInfo cinfo, 
+               Env env) throws Exception {
+    for (Ast.VarDecl v: n.vars)
+      if (v.init != null)
+        annotate(v.init, cinfo, env);
+    for (Ast.Stmt s: n.stmts)
+      annotate(s, cinfo, env);
+  }
+
+  static void annotate(Ast.Stmt n, ClassInfo cinfo, Env env) throws Exception {
+    if (n instanceof Ast.Block) {
+      for (Ast.Stmt s: ((Ast.Block) n).stmts)
+        annotate(s, cinfo, env);
+    } else if (n instanceof Ast.Assign) {
+      annotate(((Ast.Assign) n).lhs, cinfo, env);
+      annotate(((Ast.Assign) n).rhs, cinfo, env);
+    } else if (n instanceof Ast.CallStmt) {
+      Ast.CallStmt c = (Ast.CallStmt) n;
+      annotate(c.obj, cinfo, env);
+      for (Ast.Exp e: c.args)
+        annotate(e, cinfo, env);
+    } else if (n instanceof Ast.If) {
+      Ast.If s = (Ast.If) n;
+      annotate(s.cond, cinfo, env);
+      annotate(s.s1, cinfo, env);
+      if (s.s2 != null)
+        annotate(s.s2, cinfo, env);
+    } else if (n instanceof Ast.While) {
+      annotate(((Ast.While) n).cond, cinfo, env);
+      annotate(((Ast.While) n).s, cinfo, env);
+    } else if (n instanceof Ast.Print) {
+      if (((Ast.Print) n).arg != null)
+        annotate(((Ast.Print) n).arg, cinfo, env);
+    } else if (n instanceof Ast.Return) {
+      if (((Ast.Return) n).val != null)
+        annotate(((Ast.Return) n).val, cinfo, env);
     }
+  }
+
+  // Return the exp's ClassInfo (null if it is not object-valued), 
+  // recording it in expClass.
+  //
+  static ClassInfo annotate(Ast.Exp n, ClassInfo cinfo, 
+                Env env) throws Exception {
+    ClassInfo info = null;
+    if (n instanceof Ast.This) {
+      return cinfo;
+    } else if (n instanceof Ast.Id) {
+      String nm = ((Ast.Id) n).nm;
+      info = classOf(env.containsKey(nm) ? env.get(nm) : cinfo.fieldType(nm));
+    } else if (n instanceof Ast.Field) {
+      Ast.Field f = (Ast.Field) n;
+      ClassInfo objInfo = annotate(f.obj, cinfo, env);
+      if (objInfo == null)
+        throw new GenException("Unexpected obj epxression " + f.obj);
+      info = classOf(objInfo.fieldType(f.nm));
+    } else if (n instanceof Ast.Call) {
+      Ast.Call c = (Ast.Call) n;
+      ClassInfo objInfo = annotate(c.obj, cinfo, env);
+      if (objInfo == null)
+        throw new GenException("Unexpected obj epxression " + c.obj);
+      for (Ast.Exp e: c.args)
+        annotate(e, cinfo, env);
+      info = classOf(objInfo.methodType(c.nm));
+    } else if (n instanceof Ast.NewObj) {
+      info = classEnv.get(((Ast.NewObj) n).nm);
+    } else if (n instanceof Ast.Binop) {
+      annotate(((Ast.Binop) n).e1, cinfo, env);
+      annotate(((Ast.Binop) n).e2, cinfo, env);
+    } else if (n instanceof Ast.Unop) {
+      annotate(((Ast.Unop) n).e, cinfo, env);
+    }
+    if (info != null)
+      expClass.put(n, info);
     return info;
   }
 
+  // Return an Env holding a method's params and local vars.
+  //
+  static Env methodEnv(Ast.MethodDecl n) {
+    Env env = new Env();
+    for (Ast.Param p: n.params)
+      env.put(p.nm, p.t);
+    for (Ast.VarDecl v: n.vars)
+      env.put(v.nm, v.t);
+    return env;
+  }
+
+  //------------------------------------------------------------------------------
+  // Reachability
+  //-------------
+  //  Methods are statically bound, so each call site has exactly one
+  //  target: the named method's base class, starting from the receiver's
+  //  static class. Walking call sites from main therefore finds all the
+  //  methods that can run; with "-dme", codegen skips the others.
+  //
+  static HashSet<String> reachable = null;	// null if not computed
+  static int skipped = 0;			// number of methods skipped
+
+  static String methodKey(ClassInfo cinfo, Ast.MethodDecl m) {
+    return cinfo.name + "." + m.nm;
+  }
+
+  static HashSet<String> findReachable(Ast.Program n) throws Exception {
+    HashSet<String> seen = new HashSet<>();
+    ArrayDeque<ClassInfo> workClass = new ArrayDeque<>();
+    ArrayDeque<Ast.MethodDecl> work = new ArrayDeque<>();
+    for (Ast.ClassDecl c: n.classes)
+      for (Ast.MethodDecl m: c.mthds)
+        if (m.nm.equals("main")) {
+          seen.add(methodKey(classEnv.get(c.nm), m));
+          workClass.add(classEnv.get(c.nm));
+          work.add(m);
+        }
+    while (!work.isEmpty()) {
+      ClassInfo cinfo = workClass.poll();
+      Ast.MethodDecl m = work.poll();
+      Env env = methodEnv(m);
+      expClass.clear();
+      annotate(m, cinfo, env);
+      List<Ast.Exp> sites = new ArrayList<>();	// call receivers
+      List<String> names = new ArrayList<>();
+      for (Ast.VarDecl v: m.vars)
+        if (v.init != null)
+          findCalls(v.init, sites, names);
+      for (Ast.Stmt s: m.stmts)
+        findCalls(s, sites, names);
+      for (int i = 0; i < sites.size(); i++) {
+        ClassInfo base = getClassInfo(sites.get(i), cinfo, env)
+                           .methodBaseClass(names.get(i));
+        for (Ast.MethodDecl md: base.classDecl.mthds)
+          if (md.nm.equals(names.get(i)) && seen.add(methodKey(base, md))) {
+            workClass.add(base);
+            work.add(md);
+          }
+      }
+    }
+    return seen;
+  }
+
+  // Collect the receiver and method name of every call in a stmt/exp.
+  //
+  static void findCalls(Ast.Stmt n, List<Ast.Exp> sites, List<String> names) {
+    if (n instanceof Ast.Block) {
+      for (Ast.Stmt s: ((Ast.Block) n).stmts)
+        findCalls(s, sites, names);
+    } else if (n instanceof Ast.Assign) {
+      findCalls(((Ast.Assign) n).lhs, sites, names);
+      findCalls(((Ast.Assign) n).rhs, sites, names);
+    } else if (n instanceof Ast.CallStmt) {
+      Ast.CallStmt c = (Ast.CallStmt) n;
+      sites.add(c.obj);
+      names.add(c.nm);
+      findCalls(c.obj, sites, names);
+      for (Ast.Exp e: c.args)
+        findCalls(e, sites, names);
+    } else if (n instanceof Ast.If) {
+      Ast.If s = (Ast.If) n;
+      findCalls(s.cond, sites, names);
+      findCalls(s.s1, sites, names);
+      if (s.s2 != null)
+        findCalls(s.s2, sites, names);
+    } else if (n instanceof Ast.While) {
+      findCalls(((Ast.While) n).cond, sites, names);
+      findCalls(((Ast.While) n).s, sites, names);
+    } else if (n instanceof Ast.Print) {
+      if (((Ast.Print) n).arg != null)
+        findCalls(((Ast.Print) n).arg, sites, names);
+    } else if (n instanceof Ast.Return) {
+      if (((Ast.Return) n).val != null)
+        findCalls(((Ast.Return) n).val, sites, names);
+    }
+  }
+
+  static void findCalls(Ast.Exp n, List<Ast.Exp> sites, List<String> names) {
+    if (n instanceof Ast.Call) {
+      Ast.Call c = (Ast.Call) n;
+      sites.add(c.obj);
+      names.add(c.nm);
+      findCalls(c.obj, sites, names);
+      for (Ast.Exp e: c.args)
+        findCalls(e, sites, names);
+    } else if (n instanceof Ast.Field) {
+      findCalls(((Ast.Field) n).obj, sites, names);
+    } else if (n instanceof Ast.Binop) {
+      findCalls(((Ast.Binop) n).e1, sites, names);
+      findCalls(((Ast.Binop) n).e2, sites, names);
+    } else if (n instanceof Ast.Unop) {
+      findCalls(((Ast.Unop) n).e, sites, names);
+    }
+  }
+
   // Type mapping (AST.Type -> IR.Type)
   //
   static IR.Type gen(Ast.Type n) throws Exception {
@@ -175,22 +432,157 @@ public class IRGen {
     throw new GenException("Invalid Ast type: " + n);
   }
 
+  // Field type mapping (AST.Type -> IR.Type of the field's storage)
+  //
+  // In compressed-pointer mode an object field holds a 4-byte offset from
+  // the heap base rather than a full pointer. IRInterp's heap base is 0,
+  // so encoding and decoding a reference are both the identity, and the
+  // field is simply loaded and stored as an :I.
+  //
+  static IR.Type genField(Ast.Type n) throws Exception {
+    IR.Type t = gen(n);
+    return (compressedPtrs && t == IR.Type.PTR) ? IR.Type.INT : t;
+  }
+
   //------------------------------------------------------------------------------
   // The Main Codegen Routine
   //-------------------------
   //
   public static void main(String [] args) throws Exception {
-    if (args.length == 1) {
-      FileInputStream stream = new FileInputStream(args[0]);
-      Ast.Program p = new AstParser(stream).Program();
-      stream.close();
-      IR.Program ir = gen(p);
-      System.out.print(ir.toString());
+    int i = 0;
+    for (; i < args.length && args[i].startsWith("-"); i++) {
+      if (args[i].equals("-cptr")) {
+        compressedPtrs = true;
+      } else if (args[i].equals("-escape")) {
+        escape = true;
+      } else if (args[i].equals("-tailcall")) {
+        tailcall = true;
+      } else if (args[i].equals("-irb")) {
+        irb = true;
+      } else if (args[i].equals("-ssa")) {
+        ssa = true;
+      } else if (args[i].equals("-sccp")) {
+        sccp = ssa = true;
+      } else if (args[i].equals("-copyprop")) {
+        copyprop = ssa = true;
+      } else if (args[i].equals("-gvn")) {
+        gvn = ssa = true;
+      } else if (args[i].equals("-licm")) {
+        licm = ssa = true;
+      } else if (args[i].equals("-ivsr")) {
+        ivsr = ssa = true;
+      } else if (args[i].equals("-dce")) {
+        dce = ssa = true;
+      } else if (args[i].equals("-printbuf")) {
+        printbuf = true;
+      } else if (args[i].equals("-mergefuncs")) {
+        mergefuncs = true;
+      } else if (args[i].equals("-dme")) {
+        dme = true;
+      } else if (args[i].equals("-v")) {
+        verbose = true;
+      } else if (args[i].startsWith("-inline")) {
+        inline = true;
+        if (args[i].startsWith("-inline=")) {
+          String[] b = args[i].substring(8).split(",");
+          Inliner.maxSize = Integer.parseInt(b[0]);
+          if (b.length > 1)
+            Inliner.maxDepth = Integer.parseInt(b[1]);
+        }
+      } else {
+        System.out.println("Unknown option: " + args[i]);
+        return;
+      }
+    }
+    if (args.length - i == 1) {
+      IR.Program ir;
+      if (args[i].endsWith(".ir")) {	// IR text: just run the passes
+        ir = optimize(IRReader.read(new File(args[i])));
+      } else if (args[i].endsWith(".irb")) {	// ... or IR in binary form
+        ir = optimize(IRBinary.read(new File(args[i])));
+      } else {
+        FileInputStream stream = new FileInputStream(args[i]);
+        Ast.Program p = new AstParser(stream).Program();
+        stream.close();
+        ir = optimize(gen(p));
+      }
+      if (irb)
+        IRBinary.write(ir, System.out);
+      else
+        IRWriter.write(ir, System.out);
     } else {
       System.out.println("You must provide an input file name.");
     }
   }
 
+  // Run the IR passes selected by the options.
+  //
+  static IR.Program optimize(IR.Program ir) {
+    if (tailcall)
+      ir = TailCalls.run(ir);
+    if (inline)
+      ir = Inliner.run(ir);
+    if (escape)
+      ir = EscapeAnalysis.run(ir);
+    if (ssa) {
+      ir = SSA.toSSA(ir);
+      if (sccp)
+        ir = SCCP.run(ir);
+      if (copyprop)
+        ir = CopyProp.run(ir);
+      if (gvn)
+        ir = GVN.run(ir);
+      if (licm)
+        ir = LICM.run(ir);
+      if (ivsr)
+        ir = IndVars.run(ir);
+      if (dce)
+        ir = DCE.run(ir);
+      ir = SSA.fromSSA(ir);
+    }
+    if (printbuf)
+      ir = PrintCoalesce.run(ir);
+    if (mergefuncs)
+      ir = FuncHash.merge(ir);
+    if (verbose) {
+      if (dme)
+        System.err.println("# dead methods skipped: " + skipped);
+      if (tailcall)
+        System.err.println("# tail calls eliminated: " + TailCalls.eliminated);
+      if (inline)
+        System.err.println("# calls inlined: " + Inliner.inlined);
+      if (escape)
+        System.err.println("# objects replaced: " + EscapeAnalysis.replaced);
+      if (ssa)
+        System.err.println("# phis placed: " + SSA.phis
+                           + ", copies: " + SSA.copies);
+      if (sccp)
+        System.err.println("# sccp: " + SCCP.folded + " defs folded, "
+                           + SCCP.branches + " branches resolved, insts "
+                           + SCCP.before + " -> " + SCCP.after);
+      if (copyprop)
+        System.err.println("# copies propagated: " + CopyProp.moves
+                           + " moves, " + CopyProp.phis + " phis");
+      if (gvn)
+        System.err.println("# redundant exprs removed: " + GVN.exprs
+                           + ", loads: " + GVN.loads);
+      if (licm)
+        System.err.println("# loop invariants hoisted: " + LICM.hoisted
+                           + ", preheaders: " + LICM.loops);
+      if (ivsr)
+        System.err.println("# multiplications reduced: " + IndVars.reduced
+                           + ", tests replaced: " + IndVars.replaced);
+      if (dce)
+        System.err.println("# dead code: " + DCE.removed + " insts, "
+                           + DCE.locals + " locals removed");
+      if (printbuf)
+        System.err.println("# print calls merged: " + PrintCoalesce.merged);
+      if (mergefuncs)
+        System.err.println("# duplicate functions merged: " + FuncHash.merged);
+    }
+    return ir;
+  }
+
   //------------------------------------------------------------------------------
   // Codegen Routines for Individual AST Nodes
   //------------------------------------------
@@ -211,6 +603,9 @@ public class IRGen {
       ClassInfo cinfo = createClassInfo(c);
       classEnv.put(c.nm, cinfo);
     }
+    // (optional) find the methods reachable from main
+    if (dme)
+      reachable = findReachable(n);
     // pass 2: generate IR code
     for(Ast.ClassDecl c: n.classes) {
       ClassInfo cinfo = classEnv.get(c.nm);
@@ -247,8 +642,8 @@ public class IRGen {
       // Dump variable into offset hashmap with current offset value
       cinfo.offsets.put(v.nm, currentOffset);
       // Increment offset counter based on the data type
-      // 1 for :B, 4 for :I, 8 for :p
-      currentOffset += gen(v.t).size;
+      // 1 for :B, 4 for :I, 8 for :p (4 with -cptr)
+      currentOffset += genField(v.t).size;
     }
     // Set total offset for the block
     cinfo.objSize = currentOffset;
@@ -268,6 +663,10 @@ public class IRGen {
     List<IR.Func> funcs = new ArrayList<>();
 
     for(Ast.MethodDecl m : n.mthds) {
+      if (reachable != null && !reachable.contains(methodKey(cinfo, m))) {
+        skipped++;
+        continue;
+      }
       IR.Func f = gen(m, cinfo);
       funcs.add(f);
     }
@@ -287,7 +686,7 @@ public class IRGen {
   //  1. Construct a global label of form "_<base class name>_<method name>"
   //  2. Add thisObj into the params list as the 0th item
   //  3. Create an Env() and add all params and all local vars to it
-  //  (Call IR.Temp.reset() to reset the temp counter before Step 4.)
+  //  (Start a new register table, regs, so temps count from 1 again.)
   //  4. Generate IR code for all var decls' init expressions
   //  5. Generate IR code for all statements
   //  6. Return an IR.Func with the above
@@ -298,21 +697,23 @@ public class IRGen {
     List<IR.Id> locals = new ArrayList<>();
     List<IR.Inst> code = new ArrayList<>();
     IR.Global methodName;
+    // Start the method's own register table (thisObj is re-interned in it)
+    regs = new IR.Regs();
+    thisObj = regs.id("obj");
     // If method name is Main
     if(!n.nm.equals("main")) {
       // 1 Construct name
-      methodName = new IR.Global("_" + cinfo.methodBaseClass(n.nm).name + "_" + n.nm);
+      methodName = IR.Global.of("_" + cinfo.methodBaseClass(n.nm).name + "_" + n.nm);
       // 2 Add thisObj into params list
       params.add(thisObj);
     }
     else
-      methodName = new IR.Global("_" + n.nm);
+      methodName = IR.Global.of("_" + n.nm);
 
     // 3 create env and add all params
-    Env env = new Env();
+    Env env = methodEnv(n);
     for(Ast.Param p : n.params) {
-      params.add(new IR.Id(p.nm));
-      env.put(p.nm, p.t);
+      params.add(regs.id(p.nm));
     }
 
 
@@ -320,13 +721,13 @@ public class IRGen {
     // 4
     for(Ast.VarDecl v : n.vars) {
       if(!locals.contains(v)) {
-        locals.add(new IR.Id(v.nm));
-        env.put(v.nm, v.t);
+        locals.add(regs.id(v.nm));
       }
     }
 
-    // Reset temp counter;
-    IR.Temp.reset();
+    // Resolve receiver classes once for the whole body
+    expClass.clear();
+    annotate(n, cinfo, env);
 
     for(Ast.VarDecl v : n.vars) {
       code.addAll(gen(v, cinfo, env));
@@ -342,7 +743,7 @@ public class IRGen {
       code.add(new IR.Return());
     }
 
-    return new IR.Func(methodName, params, locals, code);
+    return new IR.Func(methodName, params, locals, code, regs);
   } 
 
   // VarDecl ---
@@ -358,7 +759,7 @@ public class IRGen {
   static List<IR.Inst> gen(Ast.VarDecl n, ClassInfo cinfo, 
                    Env env) throws Exception {
     List<IR.Inst> code = new ArrayList<>();
-    IR.Id varId = new IR.Id(n.nm);
+    IR.Id varId = regs.id(n.nm);
 
     if(n.init != null) {
       CodePack varPack = gen(n.init, cinfo, env);
@@ -427,7 +828,7 @@ public class IRGen {
       //CodePack lhsPack = gen(n.lhs, cinfo, env);
 
       if(env.containsKey(((Ast.Id)n.lhs).nm)) {
-        IR.Dest lhs = new IR.Id(((Ast.Id)n.lhs).nm);
+        IR.Dest lhs = regs.id(((Ast.Id)n.lhs).nm);
         code.add(new IR.Move(lhs, rhsPack.src));
       }
       else {
@@ -439,7 +840,7 @@ public class IRGen {
         Ast.Type temp = fieldInfo.fieldType(ftemp.nm);
 
         code.addAll(fieldPack.code);
-        code.add(new IR.Store(gen(temp), addr, rhsPack.src));
+        code.add(new IR.Store(genField(temp), addr, rhsPack.src));
       }
     }
     // LHS is field, need to gen addr
@@ -452,7 +853,7 @@ public class IRGen {
       Ast.Type temp = fieldInfo.fieldType(((Ast.Field)n.lhs).nm);
 
       code.addAll(lhsPack.code);
-      code.add(new IR.Store(gen(temp), addr, rhsPack.src));
+      code.add(new IR.Store(genField(temp), addr, rhsPack.src));
     }
     return code;
   }
@@ -493,7 +894,7 @@ public class IRGen {
     //  2.
     ClassInfo bInfo = classInfo.methodBaseClass(name);
     //  3.
-    IR.Global global = new IR.Global("_" + bInfo.name + "_" + name);
+    IR.Global global = IR.Global.of("_" + bInfo.name + "_" + name);
     //  4.
     CodePack objPack = gen(obj, cinfo, env);
     sources.add(objPack.src);
@@ -510,7 +911,7 @@ public class IRGen {
     //     (b) Create a new temp
     if(retFlag) {
       IR.Type methodType = gen(classInfo.methodType(name));
-      IR.Temp temp = new IR.Temp();
+      IR.Temp temp = regs.freshTemp();
       //  7. Generate IR.Call instruction (set the indirect flag to false)
       code.add(new IR.Call(global, false, sources, temp));
       return new CodePack(methodType, temp, code);
@@ -629,22 +1030,22 @@ public class IRGen {
     // Need a check to determine which print global to use.
     // If the arg is a strlit, or null we use _printStr
     if(n.arg == null) {
-      global = new IR.Global("_printStr");
+      global = IR.Global.of("_printStr");
     }
     else if (n.arg instanceof Ast.StrLit) {
       sources.add(new IR.StrLit(((Ast.StrLit)n.arg).s));
-      global = new IR.Global("_printStr");
+      global = IR.Global.of("_printStr");
     }
     else {
       argPack = gen(n.arg, cinfo, env);
       code.addAll(argPack.code);
       sources.add(argPack.src);
       if(n.arg instanceof Ast.BoolLit || argPack.type == IR.Type.BOOL) {
-        global = new IR.Global("_printBool");
+        global = IR.Global.of("_printBool");
 
       }
       else {
-        global = new IR.Global("_printInt");
+        global = IR.Global.of("_printInt");
       }
     }
     code.add(new IR.Call(global, false, sources));
@@ -715,23 +1116,23 @@ public class IRGen {
     List<IR.Inst> code = new ArrayList<>();
     List<IR.Src> sources = new ArrayList<>();
     boolean b = false;
-    IR.Temp temp = new IR.Temp();
+    IR.Temp temp = regs.freshTemp();
 
     ClassInfo newInfo = classEnv.get(n.nm);
     int size = newInfo.objSize;
-    IR.IntLit objSize = new IR.IntLit(size);
+    IR.IntLit objSize = IR.IntLit.of(size);
     sources.add(objSize);
 
     IR.Global global;
     if(size != 0) {
-      global = new IR.Global("_malloc");
+      global = IR.Global.of("_malloc");
       code.add(new IR.Call(global, b, sources, temp));
 
       return new CodePack(IR.Type.PTR, temp, code);
     }
     else { //generate an intlit(0)
 
-      return new CodePack(IR.Type.PTR, new IR.IntLit(0), code);
+      return new CodePack(IR.Type.PTR, IR.IntLit.of(0), code);
     }
 
   }
@@ -750,7 +1151,7 @@ public class IRGen {
   //
   static CodePack gen(Ast.Field n, ClassInfo cinfo, Env env) throws Exception {
     List<IR.Inst> code = new ArrayList<>();
-    IR.Temp temp = new IR.Temp();
+    IR.Temp temp = regs.freshTemp();
 
     CodePack fieldPack = gen(n.obj, cinfo, env);
     code.addAll(fieldPack.code);
@@ -759,7 +1160,7 @@ public class IRGen {
     int offset = objInfo.fieldOffset(n.nm);
     IR.Addr addr = new IR.Addr(fieldPack.src, offset);
 
-    IR.Load load = new IR.Load(gen(objInfo.fieldType(n.nm)), temp, addr);
+    IR.Load load = new IR.Load(genField(objInfo.fieldType(n.nm)), temp, addr);
     code.add(load);
 
     Ast.Type tempType = objInfo.fieldType(n.nm);
@@ -774,15 +1175,17 @@ public class IRGen {
   //  1. Check to see if the Id is in the env; if so, it is a local var or
   //     param, just return the Id (in a CodePack)
   //  2. Otherwise, it is an instance variable:
-  //     (a) Convert it to an Ast.Field node with Ast.This() as its obj
+  //     (a) Convert it to an Ast.Field node with Ast.This as its obj
   //     (b) Call gen on this new node
+  //  The new node reuses the parser's shared Ast.This rather than
+  //  allocating one per access; getClassInfo() resolves it to cinfo.
   //
   static CodePack gen(Ast.Id n, ClassInfo cinfo, Env env) throws Exception {
     if(env.containsKey(n.nm)) {
-      return new CodePack(gen(env.get(n.nm)), new IR.Id(n.nm));
+      return new CodePack(gen(env.get(n.nm)), regs.id(n.nm));
     }
     else {
-      Ast.Field instanceVar = new Ast.Field(new Ast.This(), n.nm);
+      Ast.Field instanceVar = new Ast.Field(Ast.This, n.nm);
       return gen(instanceVar, cinfo, env);
     }
   }
@@ -797,7 +1200,7 @@ public class IRGen {
   // int i;
   //
   static CodePack gen(Ast.IntLit n) throws Exception {
-    return  new CodePack(IR.Type.INT, new IR.IntLit(n.i));
+    return  new CodePack(IR.Type.INT, IR.IntLit.of(n.i));
   }
 
   // BoolLit ---
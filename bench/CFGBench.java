@@ -0,0 +1,70 @@
+// CS322 HW2
+//
+
+// Benchmark for ir.CFG.
+//
+// Builds large synthetic functions made of chained loops with an
+// if-then-else in each body (so there are back edges, joins and
+// non-trivial dominance frontiers), and times CFG construction: blocks,
+// edges, reverse postorder, dominators and dominance frontiers.
+//
+// Usage: java bench.CFGBench [#insts]
+//
+package bench;
+import java.util.*;
+import ir.*;
+
+public class CFGBench {
+
+  public static void main(String[] args) throws Exception {
+    int max = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+    for (int n = 10000; n <= max; n *= 10) {
+      IR.Func f = func(n);
+      for (int round = 0; round < 3; round++) {
+        long t0 = System.nanoTime();
+        CFG g = new CFG(f);
+        double ms = (System.nanoTime() - t0) / 1e6;
+        System.out.printf("%8d insts %7d blocks %9.1f ms %8.1f Minst/s%n",
+                          f.code.length, g.nblocks, ms,
+                          f.code.length / ms / 1000);
+      }
+    }
+  }
+
+  // A function of about n insts. Loop k is:
+  //
+  //   H:  if i >= n goto X
+  //       if i < k goto E
+  //       t = i * 4
+  //       goto J
+  //   E:  t = i + k
+  //   J:  i = i + 1
+  //       goto H
+  //   X:
+  //
+  static IR.Func func(int n) {
+    List<IR.Inst> code = new ArrayList<>();
+    IR.Id i = new IR.Id("i"), m = new IR.Id("n"), t = new IR.Id("t");
+    for (int k = 0; code.size() < n; k++) {
+      IR.Label h = new IR.Label("H" + k), e = new IR.Label("E" + k),
+        j = new IR.Label("J" + k), x = new IR.Label("X" + k);
+      IR.IntLit lit = new IR.IntLit(k);
+      code.add(new IR.Move(i, IR.ZERO));
+      code.add(new IR.LabelDec(h));
+      code.add(new IR.CJump(IR.ROP.GE, i, m, x));
+      code.add(new IR.CJump(IR.ROP.LT, i, lit, e));
+      code.add(new IR.Binop(IR.AOP.MUL, t, i, new IR.IntLit(4)));
+      code.add(new IR.Jump(j));
+      code.add(new IR.LabelDec(e));
+      code.add(new IR.Binop(IR.AOP.ADD, t, i, lit));
+      code.add(new IR.LabelDec(j));
+      code.add(new IR.Binop(IR.AOP.ADD, i, i, new IR.IntLit(1)));
+      code.add(new IR.Jump(h));
+      code.add(new IR.LabelDec(x));
+    }
+    code.add(new IR.Return(t));
+    return new IR.Func(new IR.Global("_f"), Arrays.asList(m),
+                       Arrays.asList(i, t), code);
+  }
+
+}
@@ -0,0 +1,62 @@
+// CS322 HW2
+//
+
+// Benchmark for ir.IRBinary, against IR text.
+//
+// Writes a program in both forms, then times loading each back the way
+// an interpreter would: IR text with ir.IRReader, binary IR with
+// IRBinary.read. The program is the synthetic one of IRWriterBench, or
+// the IR in a given .ir file.
+//
+// Usage: java bench.IRBinaryBench [#insts | file.ir]
+//
+package bench;
+import java.io.*;
+import ir.*;
+
+public class IRBinaryBench {
+
+  public static void main(String[] args) throws Exception {
+    IR.Program p;
+    if (args.length > 0 && args[0].endsWith(".ir"))
+      p = IRReader.read(new File(args[0]));
+    else
+      p = IRWriterBench.program(args.length > 0 ? Integer.parseInt(args[0])
+                                                : 1000000);
+    int n = 0;
+    for (IR.Func f: p.funcs)
+      n += f.code.length;
+
+    File text = File.createTempFile("irbench", ".ir");
+    File bin = File.createTempFile("irbench", ".irb");
+    text.deleteOnExit();
+    bin.deleteOnExit();
+    try (OutputStream os = new FileOutputStream(text)) {
+      IRWriter.write(p, os);
+    }
+    try (OutputStream os = new BufferedOutputStream(new FileOutputStream(bin))) {
+      IRBinary.write(p, os);
+    }
+    System.out.printf("%-18s %8d insts %10d bytes%n", "size .ir", n,
+                      text.length());
+    System.out.printf("%-18s %8d insts %10d bytes (%.0f%%)%n", "size .irb", n,
+                      bin.length(), 100.0 * bin.length() / text.length());
+
+    for (int round = 0; round < 3; round++) {
+      long t0 = System.nanoTime();
+      IRReader.read(text);
+      report("IRReader .ir", n, t0);
+
+      t0 = System.nanoTime();
+      IRBinary.read(bin);
+      report("IRBinary .irb", n, t0);
+    }
+  }
+
+  static void report(String what, int n, long t0) {
+    double ms = (System.nanoTime() - t0) / 1e6;
+    System.out.printf("%-18s %8d insts %9.1f ms %8.1f Minst/s%n",
+                      what, n, ms, n / ms / 1000);
+  }
+
+}
@@ -0,0 +1,90 @@
+// CS322 HW2
+//
+
+// Benchmark for ir.IRWriter.
+//
+// Builds a synthetic program of about 1M instructions and times writing
+// it with IRWriter (to a discarding Writer and to a buffered file) and
+// through IR.Program.toString.
+//
+// Usage: java bench.IRWriterBench [#insts]
+//
+package bench;
+import java.io.*;
+import java.util.*;
+import ir.*;
+
+public class IRWriterBench {
+
+  public static void main(String[] args) throws Exception {
+    int n = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+    IR.Program p = program(n);
+
+    for (int round = 0; round < 3; round++) {
+      long t0 = System.nanoTime();
+      CountingWriter cw = new CountingWriter();
+      IRWriter w = new IRWriter(new BufferedWriter(cw, 1 << 16));
+      w.write(p);
+      w.flush();
+      report("IRWriter -> null", n, cw.count, t0);
+
+      File tmp = File.createTempFile("irbench", ".ir");
+      tmp.deleteOnExit();
+      t0 = System.nanoTime();
+      try (OutputStream os = new FileOutputStream(tmp)) {
+        IRWriter.write(p, os);
+      }
+      report("IRWriter -> file", n, tmp.length(), t0);
+
+      t0 = System.nanoTime();
+      String s = p.toString();
+      report("Program.toString", n, s.length(), t0);
+    }
+  }
+
+  static void report(String what, int n, long chars, long t0) {
+    double ms = (System.nanoTime() - t0) / 1e6;
+    System.out.printf("%-18s %8d insts %10d chars %9.1f ms %8.1f Minst/s%n",
+                      what, n, chars, ms, n / ms / 1000);
+  }
+
+  // A program of 100 functions with a mix of all instruction kinds.
+  //
+  static IR.Program program(int n) {
+    List<IR.Func> funcs = new ArrayList<>();
+    int nfuncs = 100;
+    for (int f = 0; f < nfuncs; f++) {
+      List<IR.Inst> code = new ArrayList<>();
+      IR.Id a = new IR.Id("a"), b = new IR.Id("b");
+      for (int i = 0; code.size() < n / nfuncs; i++) {
+        IR.Temp t = new IR.Temp(i + 1);
+        IR.Label l = new IR.Label("L" + i);
+        switch (i % 8) {
+        case 0: code.add(new IR.Binop(IR.AOP.ADD, t, a, new IR.IntLit(i))); break;
+        case 1: code.add(new IR.Move(b, t)); break;
+        case 2: code.add(new IR.Load(IR.Type.INT, t, new IR.Addr(b, 4))); break;
+        case 3: code.add(new IR.Store(IR.Type.PTR, new IR.Addr(a), t)); break;
+        case 4: code.add(new IR.Call(new IR.Global("_f"), false,
+                                     new IR.Src[] { a, t, IR.TRUE }, t)); break;
+        case 5: code.add(new IR.CJump(IR.ROP.LT, t, b, l)); break;
+        case 6: code.add(new IR.LabelDec(l)); break;
+        default: code.add(new IR.Unop(IR.UOP.NEG, t, a)); break;
+        }
+      }
+      code.add(new IR.Return(a));
+      funcs.add(new IR.Func(new IR.Global("_f" + f),
+                            new IR.Id[] { new IR.Id("a") },
+                            new IR.Id[] { new IR.Id("b") },
+                            code.toArray(new IR.Inst[0])));
+    }
+    return new IR.Program(new IR.Data[0], funcs.toArray(new IR.Func[0]));
+  }
+
+  static class CountingWriter extends Writer {
+    long count;
+    public void write(char[] buf, int off, int len) { count += len; }
+    public void flush() {}
+    public void close() {}
+  }
+
+}
@@ -0,0 +1,259 @@
+// CS322 HW2
+//
+
+// Control-flow graph of an IR.Func, with its dominator tree.
+//
+// Basic blocks are numbered 0..nblocks-1 in code order; block b covers
+// code[start[b]] .. code[end[b]-1]. A block begins at the function entry,
+// at a LabelDec, or after a Jump/CJump/Return, and the edges follow
+// branch targets (Func.targets()) and fallthrough. succ[b]/pred[b] list
+// block numbers (without duplicates).
+//
+// Only blocks reachable from the entry (block 0) take part in the
+// ordering and dominance info:
+//
+//   rpo[]     reachable blocks in reverse postorder; rpoNum[b] is b's
+//             position in it (-1 if b is unreachable);
+//   idom[b]   b's immediate dominator (idom[0] == 0, -1 if unreachable),
+//             computed with the iterative algorithm of Cooper, Harvey and
+//             Kennedy ("A Simple, Fast Dominance Algorithm");
+//   kids[b]   b's children in the dominator tree;
+//   df[b]     b's dominance frontier.
+//
+package ir;
+import java.util.*;
+
+public class CFG {
+
+  public final IR.Func func;
+  public final int nblocks;
+  public final int[] start, end;
+  public final int[] blockOf;		// inst index -> block
+  public final int[][] succ, pred;
+  public final int[] rpo, rpoNum;
+  public final int[] idom;
+  public final int[][] kids, df;
+  final int[] domPre, domPost;		// dominator tree DFS numbering
+
+  public CFG(IR.Func f) {
+    func = f;
+    IR.Inst[] code = f.code;
+    int n = code.length;
+
+    // Blocks
+    boolean[] leader = new boolean[n + 1];
+    if (n > 0)
+      leader[0] = true;
+    for (int i = 0; i < n; i++) {
+      if (code[i] instanceof IR.LabelDec)
+        leader[i] = true;
+      if (code[i] instanceof IR.Jump || code[i] instanceof IR.CJump
+          || code[i] instanceof IR.Return)
+        leader[i + 1] = true;
+    }
+    int nb = 0;
+    for (int i = 0; i < n; i++)
+      if (leader[i])
+        nb++;
+    nblocks = nb;
+    start = new int[nb];
+    end = new int[nb];
+    blockOf = new int[n];
+    for (int i = 0, b = -1; i < n; i++) {
+      if (leader[i]) {
+        start[++b] = i;
+        if (b > 0)
+          end[b - 1] = i;
+      }
+      blockOf[i] = b;
+    }
+    if (nb > 0)
+      end[nb - 1] = n;
+
+    // Edges
+    succ = new int[nb][];
+    int[] npred = new int[nb];
+    for (int b = 0; b < nb; b++) {
+      IR.Inst last = code[end[b] - 1];
+      int s1 = -1, s2 = -1;
+      if (last instanceof IR.Jump || last instanceof IR.CJump) {
+        int t = f.targets()[end[b] - 1];
+        if (t >= 0)
+          s1 = blockOf[t];
+      }
+      if (!(last instanceof IR.Jump || last instanceof IR.Return)
+          && b + 1 < nb)
+        s2 = b + 1;
+      if (s1 == s2)
+        s2 = -1;
+      succ[b] = s1 >= 0 && s2 >= 0 ? new int[] { s1, s2 }
+        : s1 >= 0 ? new int[] { s1 } : s2 >= 0 ? new int[] { s2 } : new int[0];
+      for (int s: succ[b])
+        npred[s]++;
+    }
+    pred = new int[nb][];
+    for (int b = 0; b < nb; b++)
+      pred[b] = new int[npred[b]];
+    Arrays.fill(npred, 0);
+    for (int b = 0; b < nb; b++)
+      for (int s: succ[b])
+        pred[s][npred[s]++] = b;
+
+    // Reverse postorder (iterative DFS from the entry)
+    rpoNum = new int[nb];
+    Arrays.fill(rpoNum, -1);
+    int[] post = new int[nb];
+    int npost = 0;
+    if (nb > 0) {
+      int[] stack = new int[nb], edge = new int[nb];
+      boolean[] seen = new boolean[nb];
+      int sp = 0;
+      stack[sp++] = 0;
+      seen[0] = true;
+      while (sp > 0) {
+        int b = stack[sp - 1];
+        if (edge[b] < succ[b].length) {
+          int s = succ[b][edge[b]++];
+          if (!seen[s]) {
+            seen[s] = true;
+            stack[sp++] = s;
+          }
+        } else {
+          post[npost++] = b;
+          sp--;
+        }
+      }
+    }
+    rpo = new int[npost];
+    for (int k = 0; k < npost; k++) {
+      rpo[k] = post[npost - 1 - k];
+      rpoNum[rpo[k]] = k;
+    }
+
+    // Dominators (Cooper-Harvey-Kennedy)
+    idom = new int[nb];
+    Arrays.fill(idom, -1);
+    if (nb > 0)
+      idom[0] = 0;
+    for (boolean changed = true; changed; ) {
+      changed = false;
+      for (int k = 1; k < rpo.length; k++) {
+        int b = rpo[k];
+        int nd = -1;
+        for (int p: pred[b]) {
+          if (idom[p] < 0)
+            continue;
+          nd = nd < 0 ? p : intersect(p, nd);
+        }
+        if (nd != idom[b]) {
+          idom[b] = nd;
+          changed = true;
+        }
+      }
+    }
+
+    // Dominator tree
+    int[] nkids = new int[nb];
+    for (int b: rpo)
+      if (b != 0)
+        nkids[idom[b]]++;
+    kids = new int[nb][];
+    for (int b = 0; b < nb; b++)
+      kids[b] = new int[nkids[b]];
+    Arrays.fill(nkids, 0);
+    for (int b: rpo)
+      if (b != 0)
+        kids[idom[b]][nkids[idom[b]]++] = b;
+    domPre = new int[nb];
+    domPost = new int[nb];
+    numberDomTree();
+
+    // Dominance frontiers (two passes over the join points: count, then
+    // fill; mark[r] == b means b is already in df[r])
+    df = new int[nb][];
+    int[] ndf = new int[nb], mark = new int[nb];
+    for (int pass = 0; pass < 2; pass++) {
+      Arrays.fill(mark, -1);
+      for (int b: rpo) {
+        if (pred[b].length < 2)
+          continue;
+        for (int p: pred[b]) {
+          if (idom[p] < 0)		// unreachable pred
+            continue;
+          for (int r = p; r != idom[b] && mark[r] != b; r = idom[r]) {
+            mark[r] = b;
+            if (pass == 0)
+              ndf[r]++;
+            else
+              df[r][ndf[r]++] = b;
+            if (r == 0)
+              break;
+          }
+        }
+      }
+      for (int b = 0; b < nb; b++) {
+        if (pass == 0)
+          df[b] = new int[ndf[b]];
+        ndf[b] = 0;
+      }
+    }
+  }
+
+  int intersect(int b1, int b2) {
+    while (b1 != b2) {
+      while (rpoNum[b1] > rpoNum[b2])
+        b1 = idom[b1];
+      while (rpoNum[b2] > rpoNum[b1])
+        b2 = idom[b2];
+    }
+    return b1;
+  }
+
+  void numberDomTree() {
+    if (rpo.length == 0)
+      return;
+    int[] stack = new int[nblocks], edge = new int[nblocks];
+    int sp = 0, clock = 0;
+    stack[sp++] = 0;
+    domPre[0] = clock++;
+    while (sp > 0) {
+      int b = stack[sp - 1];
+      if (edge[b] < kids[b].length) {
+        int c = kids[b][edge[b]++];
+        domPre[c] = clock++;
+        stack[sp++] = c;
+      } else {
+        domPost[b] = clock++;
+        sp--;
+      }
+    }
+  }
+
+  public boolean reachable(int b) { return rpoNum[b] >= 0; }
+
+  // Return true if block a dominates block b (both reachable).
+  //
+  public boolean dominates(int a, int b) {
+    return domPre[a] <= domPre[b] && domPost[b] <= domPost[a];
+  }
+
+  // Return the LabelDec that starts block b (null if it has none).
+  //
+  public IR.Label label(int b) {
+    IR.Inst c = func.code[start[b]];
+    return c instanceof IR.LabelDec ? ((IR.LabelDec) c).lab : null;
+  }
+
+  public String toString() {
+    StringBuilder sb = new StringBuilder();
+    for (int b = 0; b < nblocks; b++) {
+      sb.append("B").append(b).append(" [").append(start[b]).append(",")
+        .append(end[b]).append(") succ=").append(Arrays.toString(succ[b]))
+        .append(" pred=").append(Arrays.toString(pred[b]))
+        .append(" idom=").append(idom[b])
+        .append(" df=").append(Arrays.toString(df[b])).append("\n");
+    }
+    return sb.toString();
+  }
+
+}
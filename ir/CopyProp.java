@@ -0,0 +1,140 @@
+// CS322 HW2
+//
+
+// Global copy propagation and move coalescing, on SSA form.
+//
+// In SSA form every register has one definition, so after "x = y" the
+// two names hold the same value wherever x is used, and they can be
+// merged into one. The same goes for a phi whose args (other than its
+// own dst) are all the same register. The pass puts the registers
+// connected by such copies in classes (union-find over the function's
+// slots), renames every register to its class's representative, and
+// drops the moves and phis that became "x = x".
+//
+// The representative is the register the class's value comes from,
+// except that a variable is preferred over a temp: "t1 = call _f();
+// b = t1; a = b" becomes "b = call _f()" with the uses of a reading b.
+// A class that holds a param or a register with no definition (an
+// undefined value) keeps that register's name, and two such classes
+// are never merged.
+//
+package ir;
+import java.util.*;
+
+public class CopyProp {
+
+  public static int moves = 0;		// copies removed
+  public static int phis = 0;		// trivial phis removed
+
+  // Program ---
+  //
+  public static IR.Program run(IR.Program p) {
+    IR.Func[] out = new IR.Func[p.funcs.length];
+    for (int i = 0; i < out.length; i++)
+      out[i] = run(p.funcs[i]);
+    return new IR.Program(p.data, out);
+  }
+
+  // Func (in SSA form) ---
+  //
+  public static IR.Func run(IR.Func f) {
+    int nv = f.slotCount();
+    int[] rep = new int[nv];
+    boolean[] fixed = new boolean[nv];	// class holds a param/undefined reg
+    Arrays.fill(fixed, true);
+    for (int v = 0; v < nv; v++)
+      rep[v] = v;
+    for (IR.Inst c: f.code)
+      if (IRUtil.def(c) != null)
+        fixed[f.slotOf((IR.Reg) IRUtil.def(c))] = false;
+
+    for (boolean changed = true; changed; ) {
+      changed = false;
+      for (IR.Inst c: f.code) {
+        int s = source(f, c, rep);
+        if (s < 0)
+          continue;
+        int a = find(rep, f.slotOf((IR.Reg) IRUtil.def(c))), b = find(rep, s);
+        if (a == b || (fixed[a] && fixed[b]))
+          continue;
+        int w = fixed[b] ? b : fixed[a] ? a
+          : f.slotReg(a) instanceof IR.Id && f.slotReg(b) instanceof IR.Temp
+          ? a : b;
+        rep[a] = rep[b] = w;
+        fixed[w] = fixed[a] || fixed[b];
+        changed = true;
+      }
+    }
+
+    IRUtil.Subst m = new IRUtil.Subst() {
+      public IR.Src src(IR.Src s) {
+        if (!(s instanceof IR.Reg))
+          return s;
+        return (IR.Src) f.slotReg(find(rep, f.slotOf((IR.Reg) s)));
+      }
+      public IR.Dest dest(IR.Dest d) { return (IR.Dest) src((IR.Src) d); }
+    };
+    List<IR.Inst> code = new ArrayList<>();
+    for (IR.Inst c: f.code) {
+      IR.Inst n = IRUtil.subst(c, m);
+      if (n instanceof IR.Move && ((IR.Move) n).src.equals(((IR.Move) n).dst)) {
+        moves++;
+        continue;
+      }
+      if (n instanceof IR.Phi && selfCopy((IR.Phi) n)) {
+        phis++;
+        continue;
+      }
+      code.add(n);
+    }
+    List<IR.Id> locals = new ArrayList<>();
+    for (IR.Id id: f.locals) {
+      int v = f.slotOf(id);
+      if (v < 0 || find(rep, v) == v)
+        locals.add(id);
+    }
+    return new IR.Func(f.gname, Arrays.asList(f.params), locals, code,
+                       f.regs());
+  }
+
+  // If c copies a register into its dst ("x = y", or a phi whose args
+  // are all y or x), return y's slot; otherwise -1.
+  //
+  static int source(IR.Func f, IR.Inst c, int[] rep) {
+    if (c instanceof IR.Move) {
+      IR.Src s = ((IR.Move) c).src;
+      return s instanceof IR.Reg ? f.slotOf((IR.Reg) s) : -1;
+    }
+    if (!(c instanceof IR.Phi))
+      return -1;
+    IR.Phi phi = (IR.Phi) c;
+    int d = find(rep, f.slotOf((IR.Reg) phi.dst)), s = -1;
+    for (IR.Src a: phi.args) {
+      if (!(a instanceof IR.Reg))
+        return -1;
+      int r = find(rep, f.slotOf((IR.Reg) a));
+      if (r == d)
+        continue;
+      if (s >= 0 && r != s)
+        return -1;
+      s = r;
+    }
+    return s;
+  }
+
+  static boolean selfCopy(IR.Phi phi) {
+    for (IR.Src a: phi.args)
+      if (!a.equals(phi.dst))
+        return false;
+    return true;
+  }
+
+  static int find(int[] rep, int v) {
+    while (rep[v] != v) {
+      rep[v] = rep[rep[v]];
+      v = rep[v];
+    }
+    return v;
+  }
+
+}
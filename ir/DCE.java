@@ -0,0 +1,101 @@
+// CS322 HW2
+//
+
+// Mark-and-sweep dead code elimination.
+//
+// An instruction is live if it has an effect besides setting its dst
+// (Store, Call, Return, Jump, CJump; labels are kept as they are), or if
+// it defines a register that a live instruction reads. The mark phase
+// starts from the effectful instructions and follows each register they
+// read to all of its definitions; the sweep deletes the Binops, Unops,
+// Moves, Loads and Phis left unmarked. A Call is kept even when its
+// result is unused.
+//
+// Following a use to every definition of the register is exact in SSA
+// form and conservative otherwise, so the pass is correct on any IR.
+// Afterwards, locals that no instruction mentions are dropped from
+// Func.locals.
+//
+package ir;
+import java.util.*;
+
+public class DCE {
+
+  public static int removed = 0;	// insts deleted
+  public static int locals = 0;		// locals dropped
+
+  // Program ---
+  //
+  public static IR.Program run(IR.Program p) {
+    IR.Func[] out = new IR.Func[p.funcs.length];
+    for (int i = 0; i < out.length; i++)
+      out[i] = run(p.funcs[i]);
+    return new IR.Program(p.data, out);
+  }
+
+  // Func ---
+  //
+  public static IR.Func run(IR.Func f) {
+    IR.Inst[] code = f.code;
+    int n = code.length, nv = f.slotCount();
+
+    // Definitions of each register (by slot)
+    int[] ndef = new int[nv];
+    for (IR.Inst c: code)
+      if (IRUtil.def(c) != null)
+        ndef[f.slotOf((IR.Reg) IRUtil.def(c))]++;
+    int[][] defs = new int[nv][];
+    for (int v = 0; v < nv; v++)
+      defs[v] = new int[ndef[v]];
+    Arrays.fill(ndef, 0);
+    for (int i = 0; i < n; i++)
+      if (IRUtil.def(code[i]) != null) {
+        int v = f.slotOf((IR.Reg) IRUtil.def(code[i]));
+        defs[v][ndef[v]++] = i;
+      }
+
+    // Mark
+    boolean[] live = new boolean[n], used = new boolean[nv];
+    int[] work = new int[n];
+    int sp = 0;
+    for (int i = 0; i < n; i++)
+      if (!removable(code[i])) {
+        live[i] = true;
+        work[sp++] = i;
+      }
+    while (sp > 0) {
+      for (IR.Src s: IRUtil.uses(code[work[--sp]])) {
+        if (!(s instanceof IR.Reg))
+          continue;
+        int v = f.slotOf((IR.Reg) s);
+        if (used[v])
+          continue;
+        used[v] = true;
+        for (int i: defs[v])
+          if (!live[i]) {
+            live[i] = true;
+            work[sp++] = i;
+          }
+      }
+    }
+
+    // Sweep
+    List<IR.Inst> out = new ArrayList<>();
+    for (int i = 0; i < n; i++)
+      if (live[i])
+        out.add(code[i]);
+    removed += n - out.size();
+    List<IR.Id> ls = IRUtil.mentioned(Arrays.asList(f.locals), out);
+    locals += f.locals.length - ls.size();
+    return new IR.Func(f.gname, Arrays.asList(f.params), ls, out, f.regs());
+  }
+
+  // Return true if c only sets its dst.
+  //
+  static boolean removable(IR.Inst c) {
+    return c instanceof IR.Binop || c instanceof IR.Unop
+      || c instanceof IR.Move || c instanceof IR.Load
+      || c instanceof IR.Phi;
+  }
+
+}
@@ -0,0 +1,291 @@
+// CS322 HW2
+//
+
+// Escape analysis and scalar replacement of objects.
+//
+// An allocation "r = call _malloc(n)" does not escape its function if r,
+// and every register it is copied into, is
+//  - defined exactly once (by the malloc or by the copying Move), and
+//  - only used as the base of a Load/Store address or as the source of
+//    a copying Move.
+// Passing it to a call, returning it, storing it into memory, or using it
+// in any other instruction counts as an escape.
+//
+// A non-escaping object's fields become locals: each Load/Store through it
+// turns into a Move from/to the local for that offset, and the malloc and
+// the copying Moves are deleted.
+//
+// Allocations inside a loop body are left alone, since a single local per
+// field cannot tell one iteration's object from the next. So are objects
+// with a field that may be loaded before anything is stored to it (a
+// Load not dominated by a Store at the same offset): the field would
+// read the runtime's undefined value, which a local cannot hold.
+//
+package ir;
+import java.util.*;
+
+public class EscapeAnalysis {
+
+  public static int replaced = 0;	// number of allocations removed
+
+  // Program ---
+  //
+  public static IR.Program run(IR.Program p) {
+    IR.Func[] out = new IR.Func[p.funcs.length];
+    for (int i = 0; i < out.length; i++)
+      out[i] = run(p.funcs[i]);
+    return new IR.Program(p.data, out);
+  }
+
+  // Func ---
+  //
+  public static IR.Func run(IR.Func f) {
+    IR.Func g = f;
+    // Replacing an object can turn another's escaping Store into a Move,
+    // so repeat rounds until nothing changes
+    for (IR.Func h = round(g); h != null; h = round(g))
+      g = h;
+    return g;
+  }
+
+  // A non-escaping allocation: its aliases, the instructions (malloc and
+  // copying Moves) to delete, and its fields.
+  //
+  static class Obj {
+    final Set<IR.Reg> aliases = new HashSet<>();
+    final Set<Integer> removed = new HashSet<>();
+    final TreeMap<Integer, IR.Type> fields = new TreeMap<>();
+  }
+
+  // Return f with every non-escaping allocation scalar-replaced, or null
+  // if there is none. The def counts, the CFG and the label positions are
+  // computed once and shared by all candidates: the alias sets of two
+  // allocations are disjoint (each alias is defined once), so replacing
+  // one does not change whether another escapes.
+  //
+  static IR.Func round(IR.Func f) {
+    IR.Inst[] code = f.code;
+    HashMap<IR.Reg, Integer> defs = null;
+    CFG cfg = null;
+    HashMap<String, Integer> labels = null;
+    List<Obj> objs = new ArrayList<>();
+    for (int k = 0; k < code.length; k++) {
+      if (!isMalloc(code[k]))
+        continue;
+      if (defs == null) {
+        defs = defCounts(f);
+        cfg = new CFG(f);
+        labels = labels(code);
+      }
+      Obj o = analyze(code, k, defs, cfg, labels);
+      if (o != null)
+        objs.add(o);
+    }
+    if (objs.isEmpty())
+      return null;
+
+    // Rewrite: one local per field offset of each object
+    HashMap<IR.Reg, HashMap<Integer, IR.Id>> vars = new HashMap<>();
+    Set<Integer> removed = new HashSet<>();
+    List<IR.Id> fresh = new ArrayList<>();
+    for (Obj o: objs) {
+      String base = nameOf(o.aliases);
+      HashMap<Integer, IR.Id> vs = new HashMap<>();
+      for (int off: o.fields.keySet()) {
+        IR.Id v = f.regs().freshId(base + "_" + off);
+        vs.put(off, v);
+        fresh.add(v);
+      }
+      for (IR.Reg r: o.aliases)
+        vars.put(r, vs);
+      removed.addAll(o.removed);
+    }
+    List<IR.Id> locals = new ArrayList<>();
+    for (IR.Id id: f.locals)
+      if (!vars.containsKey(id))
+        locals.add(id);
+    locals.addAll(fresh);
+    List<IR.Inst> out = new ArrayList<>();
+    for (int i = 0; i < code.length; i++) {
+      IR.Inst c = code[i];
+      if (removed.contains(i))
+        continue;
+      if (c instanceof IR.Load && vars.containsKey(((IR.Load) c).addr.base)) {
+        IR.Load l = (IR.Load) c;
+        out.add(new IR.Move(l.dst, vars.get(l.addr.base).get(l.addr.offset)));
+      } else if (c instanceof IR.Store
+                 && vars.containsKey(((IR.Store) c).addr.base)) {
+        IR.Store s = (IR.Store) c;
+        out.add(new IR.Move(vars.get(s.addr.base).get(s.addr.offset), s.src));
+      } else {
+        out.add(c);
+      }
+    }
+    replaced += objs.size();
+    return new IR.Func(f.gname, Arrays.asList(f.params), locals, out,
+                       f.regs());
+  }
+
+  // Return the allocation at code[k] as an Obj, or null if it escapes.
+  //
+  static Obj analyze(IR.Inst[] code, int k, HashMap<IR.Reg, Integer> defs,
+                     CFG cfg, HashMap<String, Integer> labels) {
+    IR.Reg obj = (IR.Reg) ((IR.Call) code[k]).rdst;
+    if (defs.get(obj) != 1)
+      return null;
+
+    // Collect the allocation's aliases and check every use of them
+    Obj o = new Obj();
+    Set<IR.Reg> aliases = o.aliases;
+    aliases.add(obj);
+    o.removed.add(k);
+    boolean changed = true;
+    while (changed) {
+      changed = false;
+      for (int i = 0; i < code.length; i++) {
+        IR.Inst c = code[i];
+        if (c instanceof IR.Move && aliases.contains(((IR.Move) c).src)) {
+          IR.Reg d = (IR.Reg) ((IR.Move) c).dst;
+          if (defs.getOrDefault(d, 0) != 1)
+            return null;
+          if (aliases.add(d))
+            changed = true;
+          o.removed.add(i);
+        }
+      }
+    }
+    for (int i = 0; i < code.length; i++) {
+      IR.Inst c = code[i];
+      if (o.removed.contains(i))
+        continue;
+      if (c instanceof IR.Load && aliases.contains(((IR.Load) c).addr.base)) {
+        if (!addField(o.fields, ((IR.Load) c).addr.offset,
+                      ((IR.Load) c).type))
+          return null;
+      } else if (c instanceof IR.Store
+                 && aliases.contains(((IR.Store) c).addr.base)) {
+        if (aliases.contains(((IR.Store) c).src)
+            || !addField(o.fields, ((IR.Store) c).addr.offset,
+                         ((IR.Store) c).type))
+          return null;
+      } else {
+        for (IR.Src s: IRUtil.uses(c))
+          if (aliases.contains(s))
+            return null;
+      }
+    }
+    for (int i: o.removed)
+      if (inLoop(code, labels, i))
+        return null;
+    if (!storedFirst(code, cfg, aliases))
+      return null;
+    return o;
+  }
+
+  // Return true if every Load through the aliases is dominated by a
+  // Store at the same offset through them.
+  //
+  static boolean storedFirst(IR.Inst[] code, CFG cfg, Set<IR.Reg> aliases) {
+    List<Integer> stores = new ArrayList<>();
+    for (int j = 0; j < code.length; j++)
+      if (code[j] instanceof IR.Store
+          && aliases.contains(((IR.Store) code[j]).addr.base))
+        stores.add(j);
+    for (int i = 0; i < code.length; i++) {
+      if (!(code[i] instanceof IR.Load)
+          || !aliases.contains(((IR.Load) code[i]).addr.base))
+        continue;
+      int b = cfg.blockOf[i];
+      if (!cfg.reachable(b))
+        continue;
+      boolean ok = false;
+      for (int j: stores) {
+        int sb = cfg.blockOf[j];
+        if (((IR.Store) code[j]).addr.offset == ((IR.Load) code[i]).addr.offset
+            && cfg.reachable(sb)
+            && (sb == b ? j < i : cfg.dominates(sb, b)))
+          ok = true;
+      }
+      if (!ok)
+        return false;
+    }
+    return true;
+  }
+
+  static boolean isMalloc(IR.Inst c) {
+    if (!(c instanceof IR.Call))
+      return false;
+    IR.Call call = (IR.Call) c;
+    return !call.ind && call.rdst != null
+      && call.tgt instanceof IR.Global
+      && ((IR.Global) call.tgt).s.equals("_malloc");
+  }
+
+  // Record a field access; fail if it conflicts with an earlier access
+  // at the same or an overlapping offset.
+  //
+  static boolean addField(TreeMap<Integer, IR.Type> fields, int off,
+                          IR.Type t) {
+    IR.Type old = fields.get(off);
+    if (old != null)
+      return old == t;
+    Map.Entry<Integer, IR.Type> lo = fields.lowerEntry(off);
+    Map.Entry<Integer, IR.Type> hi = fields.higherEntry(off);
+    if (lo != null && lo.getKey() + lo.getValue().size > off)
+      return false;
+    if (hi != null && off + t.size > hi.getKey())
+      return false;
+    fields.put(off, t);
+    return true;
+  }
+
+  // Count the definitions of each register (params count as one).
+  //
+  static HashMap<IR.Reg, Integer> defCounts(IR.Func f) {
+    HashMap<IR.Reg, Integer> defs = new HashMap<>();
+    for (IR.Id id: f.params)
+      defs.put(id, 1);
+    for (IR.Inst c: f.code) {
+      IR.Dest d = IRUtil.def(c);
+      if (d != null)
+        defs.put((IR.Reg) d, defs.getOrDefault(d, 0) + 1);
+    }
+    return defs;
+  }
+
+  // Map each label to its position in code.
+  //
+  static HashMap<String, Integer> labels(IR.Inst[] code) {
+    HashMap<String, Integer> labels = new HashMap<>();
+    for (int j = 0; j < code.length; j++)
+      if (code[j] instanceof IR.LabelDec)
+        labels.put(((IR.LabelDec) code[j]).lab.name, j);
+    return labels;
+  }
+
+  // Return true if code[i] lies between a label and a later branch
+  // back to it.
+  //
+  static boolean inLoop(IR.Inst[] code, HashMap<String, Integer> labels,
+                        int i) {
+    for (int j = i; j < code.length; j++) {
+      IR.Label l = null;
+      if (code[j] instanceof IR.Jump)  l = ((IR.Jump) code[j]).lab;
+      if (code[j] instanceof IR.CJump) l = ((IR.CJump) code[j]).lab;
+      if (l != null && labels.containsKey(l.name) && labels.get(l.name) <= i)
+        return true;
+    }
+    return false;
+  }
+
+  // Pick a readable base name for the field locals.
+  //
+  static String nameOf(Set<IR.Reg> aliases) {
+    String nm = null;
+    for (IR.Reg r: aliases)
+      if (r instanceof IR.Id && (nm == null || ((IR.Id) r).s.compareTo(nm) < 0))
+        nm = ((IR.Id) r).s;
+    return nm != null ? nm : "obj";
+  }
+
+}
@@ -0,0 +1,352 @@
+// CS322 HW2
+//
+
+// Flat (struct-of-arrays) encoding of an IR.Func.
+//
+// Instruction i is described by the i-th entry of parallel int arrays:
+//
+//   op[i]   opcode | sub-op << 8 | type << 16 | indirect-call flag << 24
+//   dst[i]  destination slot (Func.slotOf), or -1
+//   a[i]    first operand:  src1, src, address base, call target
+//   b[i]    second operand: src2, stored value; arg count for a Call
+//   c[i]    aux:            address offset, label number, or the index
+//                           of a Call's first arg in args[]
+//   target[i]               a branch's target inst index (Func.targets())
+//
+// Operands are packed ints, (index << 3) | kind, where the index is a
+// register slot, a position in the consts[] table (int literals), 0/1
+// (bools), or a position in the globals[]/strs[] pools. NONE marks a
+// missing operand (e.g. a plain "return"). The sub-op is the operator's
+// ordinal (ROPs in a Binop are offset by ROP_BASE), and the type is the
+// IR.Type's ordinal plus one.
+//
+// toFunc() rebuilds an equivalent IR.Func, sharing the original's
+// registers (and register table), globals and labels.
+//// ir.Interp executes functions in this form; "make test" checks that
+// every tst program survives the round trip.
+//
+package ir;
+import java.io.*;
+import java.util.*;
+
+public class FlatFunc {
+
+  // Opcodes
+  public static final int BINOP  = 0;
+  public static final int UNOP   = 1;
+  public static final int MOVE   = 2;
+  public static final int LOAD   = 3;
+  public static final int STORE  = 4;
+  public static final int CALL   = 5;
+  public static final int RETURN = 6;
+  public static final int CJUMP  = 7;
+  public static final int JUMP   = 8;
+  public static final int LABEL  = 9;
+
+  // Operand kinds
+  public static final int REG    = 0;
+  public static final int INT    = 1;
+  public static final int BOOL   = 2;
+  public static final int GLOBAL = 3;
+  public static final int STR    = 4;
+
+  public static final int NONE = -1;
+  public static final int ROP_BASE = 16;
+
+  public final IR.Global gname;
+  public final IR.Id[] params;
+  public final IR.Id[] locals;
+  public final int size;			// number of insts
+  public final int[] op, dst, a, b, c;
+  public final int[] target;
+  public final int[] args;
+  public final long[] consts;
+  public final IR.Reg[] regs;			// by slot
+  public final IR.Regs regTable;		// f.regs()
+  public final IR.Global[] globals;
+  public final IR.StrLit[] strs;
+  public final IR.Label[] labels;
+
+  // Decoding helpers ---
+  //
+  public static int opcode(int w)  { return w & 0xff; }
+  public static int subop(int w)   { return (w >>> 8) & 0xff; }
+  public static boolean indirect(int w) { return (w >>> 24) != 0; }
+  public static int kind(int rand)  { return rand & 7; }
+  public static int index(int rand) { return rand >> 3; }
+
+  public IR.Type type(int i) {
+    int t = (op[i] >>> 16) & 0xff;
+    return t == 0 ? null : IR.Type.values()[t - 1];
+  }
+
+  // Encoding ---
+  //
+  public FlatFunc(IR.Func f) {
+    Encoder e = new Encoder(f);
+    int n = f.code.length;
+    for (int i = 0; i < n; i++) {
+      e.i = i;
+      e.dst[i] = -1;
+      e.a[i] = e.b[i] = NONE;
+      e.op[i] = f.code[i].accept(e);
+    }
+    this.gname = f.gname;
+    this.params = f.params;
+    this.locals = f.locals;
+    this.size = n;
+    this.op = e.op; this.dst = e.dst; this.a = e.a; this.b = e.b; this.c = e.c;
+    this.target = f.targets();
+    this.args = new int[e.args.size()];
+    for (int k = 0; k < this.args.length; k++)
+      this.args[k] = e.args.get(k);
+    this.consts = new long[e.consts.size()];
+    for (int k = 0; k < consts.length; k++)
+      consts[k] = e.consts.get(k);
+    this.regs = e.regs;
+    this.regTable = f.regs();
+    this.globals = e.globals.toArray(new IR.Global[0]);
+    this.strs = e.strs.toArray(new IR.StrLit[0]);
+    this.labels = e.labels.toArray(new IR.Label[0]);
+  }
+
+  // Encoder
+  // -------
+  // Fills in the arrays for inst i, and returns its op word.
+  //
+  static class Encoder extends Pools implements IR.IntInstVisitor {
+    final int[] op, dst, a, b, c;
+    final List<Integer> args = new ArrayList<>();
+    int i;
+
+    Encoder(IR.Func f) {
+      super(f);
+      int n = f.code.length;
+      op = new int[n]; dst = new int[n]; a = new int[n]; b = new int[n];
+      c = new int[n];
+    }
+
+    public int visit(IR.Binop x) {
+      int sub = x.op instanceof IR.ROP ? ROP_BASE + ((IR.ROP) x.op).ordinal()
+        : ((IR.AOP) x.op).ordinal();
+      dst[i] = slot(x.dst);
+      a[i] = rand(x.src1);
+      b[i] = rand(x.src2);
+      return BINOP | sub << 8;
+    }
+    public int visit(IR.Unop x) {
+      dst[i] = slot(x.dst);
+      a[i] = rand(x.src);
+      return UNOP | x.op.ordinal() << 8;
+    }
+    public int visit(IR.Move x) {
+      dst[i] = slot(x.dst);
+      a[i] = rand(x.src);
+      return MOVE;
+    }
+    public int visit(IR.Load x) {
+      dst[i] = slot(x.dst);
+      a[i] = rand(x.addr.base);
+      c[i] = x.addr.offset;
+      return LOAD | (x.type.ordinal() + 1) << 16;
+    }
+    public int visit(IR.Store x) {
+      a[i] = rand(x.addr.base);
+      b[i] = rand(x.src);
+      c[i] = x.addr.offset;
+      return STORE | (x.type.ordinal() + 1) << 16;
+    }
+    public int visit(IR.Call x) {
+      if (x.rdst != null)
+        dst[i] = slot(x.rdst);
+      a[i] = rand((IR.Src) x.tgt);
+      b[i] = x.args.length;
+      c[i] = args.size();
+      for (IR.Src s: x.args)
+        args.add(rand(s));
+      return CALL | (x.ind ? 1 << 24 : 0);
+    }
+    public int visit(IR.Return x) {
+      if (x.val != null)
+        a[i] = rand(x.val);
+      return RETURN;
+    }
+    public int visit(IR.CJump x) {
+      a[i] = rand(x.src1);
+      b[i] = rand(x.src2);
+      c[i] = label(x.lab);
+      return CJUMP | x.op.ordinal() << 8;
+    }
+    public int visit(IR.Jump x) {
+      c[i] = label(x.lab);
+      return JUMP;
+    }
+    public int visit(IR.LabelDec x) {
+      c[i] = label(x.lab);
+      return LABEL;
+    }
+    public int visit(IR.Phi x) {
+      throw new IllegalArgumentException("Unknown Inst: " + x);
+    }
+  }
+
+  // Pools
+  // -----
+  // Operand tables built up while encoding a function.
+  //
+  static class Pools implements IR.IntSrcVisitor {
+    final IR.Func f;
+    final IR.Reg[] regs;
+    final List<Long> consts = new ArrayList<>();
+    final Map<Long,Integer> constIdx = new HashMap<>();
+    final List<IR.Global> globals = new ArrayList<>();
+    final Map<IR.Global,Integer> globalIdx = new HashMap<>();
+    final List<IR.StrLit> strs = new ArrayList<>();
+    final Map<IR.StrLit,Integer> strIdx = new IdentityHashMap<>();
+    final List<IR.Label> labels = new ArrayList<>();
+    final Map<String,Integer> labelIdx = new HashMap<>();
+
+    Pools(IR.Func f) {
+      this.f = f;
+      regs = new IR.Reg[f.slotCount()];
+      for (int i = 0; i < regs.length; i++)
+        regs[i] = f.slotReg(i);
+    }
+
+    int slot(IR.Dest d) { return f.slotOf((IR.Reg) d); }
+
+    int rand(IR.Src s) { return s.accept(this); }
+
+    public int visit(IR.Id s)   { return f.slotOf(s) << 3 | REG; }
+    public int visit(IR.Temp s) { return f.slotOf(s) << 3 | REG; }
+    public int visit(IR.IntLit s) {
+      return index(consts, constIdx, (long) s.i) << 3 | INT;
+    }
+    public int visit(IR.BoolLit s) { return (s.b ? 1 : 0) << 3 | BOOL; }
+    public int visit(IR.Global s) {
+      return index(globals, globalIdx, s) << 3 | GLOBAL;
+    }
+    public int visit(IR.StrLit s) {
+      return index(strs, strIdx, s) << 3 | STR;
+    }
+
+    int label(IR.Label l) {
+      Integer i = labelIdx.get(l.name);
+      if (i == null) {
+        labelIdx.put(l.name, i = labels.size());
+        labels.add(l);
+      }
+      return i;
+    }
+
+    static <T> int index(List<T> pool, Map<T,Integer> idx, T x) {
+      Integer i = idx.get(x);
+      if (i == null) {
+        idx.put(x, i = pool.size());
+        pool.add(x);
+      }
+      return i;
+    }
+  }
+
+  // Decoding ---
+  //
+  public IR.Src src(int rand) {
+    int i = index(rand);
+    switch (kind(rand)) {
+    case REG:    return (IR.Src) regs[i];
+    case INT:    return IR.IntLit.of((int) consts[i]);
+    case BOOL:   return i != 0 ? IR.TRUE : IR.FALSE;
+    case GLOBAL: return globals[i];
+    case STR:    return strs[i];
+    }
+    throw new IllegalArgumentException("Bad operand: " + rand);
+  }
+
+  IR.Dest dest(int slot) { return (IR.Dest) regs[slot]; }
+
+  public IR.Inst inst(int i) {
+    int w = op[i];
+    switch (opcode(w)) {
+    case BINOP: {
+      int sub = subop(w);
+      IR.BOP bop = sub >= ROP_BASE ? IR.ROP.values()[sub - ROP_BASE]
+        : IR.AOP.values()[sub];
+      return new IR.Binop(bop, dest(dst[i]), src(a[i]), src(b[i]));
+    }
+    case UNOP:
+      return new IR.Unop(IR.UOP.values()[subop(w)], dest(dst[i]), src(a[i]));
+    case MOVE:
+      return new IR.Move(dest(dst[i]), src(a[i]));
+    case LOAD:
+      return new IR.Load(type(i), dest(dst[i]), new IR.Addr(src(a[i]), c[i]));
+    case STORE:
+      return new IR.Store(type(i), new IR.Addr(src(a[i]), c[i]), src(b[i]));
+    case CALL: {
+      IR.Src[] as = new IR.Src[b[i]];
+      for (int k = 0; k < as.length; k++)
+        as[k] = src(args[c[i] + k]);
+      return new IR.Call((IR.CallTgt) src(a[i]), indirect(w), as,
+                         dst[i] < 0 ? null : dest(dst[i]));
+    }
+    case RETURN:
+      return a[i] == NONE ? new IR.Return() : new IR.Return(src(a[i]));
+    case CJUMP:
+      return new IR.CJump(IR.ROP.values()[subop(w)], src(a[i]), src(b[i]),
+                          labels[c[i]]);
+    case JUMP:
+      return new IR.Jump(labels[c[i]]);
+    case LABEL:
+      return new IR.LabelDec(labels[c[i]]);
+    }
+    throw new IllegalArgumentException("Bad opcode: " + w);
+  }
+
+  public IR.Func toFunc() {
+    IR.Inst[] code = new IR.Inst[size];
+    for (int i = 0; i < size; i++)
+      code[i] = inst(i);
+    return new IR.Func(gname, params, locals, code, regTable);
+  }
+
+  // Program ---
+  //
+  public static FlatFunc[] flatten(IR.Program p) {
+    FlatFunc[] ff = new FlatFunc[p.funcs.length];
+    for (int i = 0; i < ff.length; i++)
+      ff[i] = new FlatFunc(p.funcs[i]);
+    return ff;
+  }
+
+  public static IR.Program toProgram(IR.Data[] data, FlatFunc[] ff) {
+    IR.Func[] funcs = new IR.Func[ff.length];
+    for (int i = 0; i < ff.length; i++)
+      funcs[i] = ff[i].toFunc();
+    return new IR.Program(data, funcs);
+  }
+
+  //------------------------------------------------------------------------------
+  // Usage: java ir.FlatFunc file.ir ...  -- check that every function
+  //                                         survives flattening unchanged
+  //
+  public static void main(String[] args) throws Exception {
+    boolean ok = true;
+    for (String a: args) {
+      IR.Program p = IRReader.read(new File(a));
+      int bad = 0;
+      for (IR.Func f: p.funcs) {
+        String s = IRWriter.toString(f, false);
+        if (!IRWriter.toString(new FlatFunc(f).toFunc(), false).equals(s)) {
+          System.out.println(a + ": " + f.gname + " differs after flattening");
+          bad++;
+        }
+      }
+      if (bad == 0)
+        System.out.println(a + ": " + p.funcs.length + " funcs round-trip");
+      ok &= bad == 0;
+    }
+    if (!ok)
+      System.exit(1);
+  }
+
+}
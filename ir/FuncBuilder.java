@@ -0,0 +1,149 @@
+// CS322 HW2
+//
+
+// Mutable function under construction.
+//
+// Holds a function's code as a doubly-linked list of Nodes. A Node is a
+// stable handle on one instruction: inserting before/after it, removing
+// it, or replacing its instruction is O(1) and leaves every other handle
+// valid. A pass can thus edit a function in place, paying only for what
+// it changes, and freeze() produces the immutable IR.Func at the end.
+// The builder carries the function's register table (IR.Regs), through
+// which the pass makes any new registers.
+//
+// Iteration follows the next() links. A removed Node keeps its links, so
+// a loop may remove the node it is standing on and still step past it.
+//
+package ir;
+import java.util.*;
+
+public class FuncBuilder implements Iterable<FuncBuilder.Node> {
+
+  public static class Node {
+    Node prev, next;
+    FuncBuilder owner;		// null once removed
+    IR.Inst inst;
+
+    Node(IR.Inst inst) { this.inst = inst; }
+
+    public IR.Inst inst() { return inst; }
+
+    // Return the next/previous instruction's node (null at either end).
+    public Node next() {
+      Node n = next;
+      while (n != null && n.owner == null)	// skip nodes removed meanwhile
+        n = n.next;
+      return n == null || n.inst == null ? null : n;
+    }
+    public Node prev() {
+      Node n = prev;
+      while (n != null && n.owner == null)
+        n = n.prev;
+      return n == null || n.inst == null ? null : n;
+    }
+    public boolean removed() { return owner == null; }
+  }
+
+  public IR.Global gname;
+  public final List<IR.Id> params;
+  public final List<IR.Id> locals;
+  public final IR.Regs regs;
+  final Node head = new Node(null);	// sentinels
+  final Node tail = new Node(null);
+  int size = 0;
+
+  public FuncBuilder(IR.Global gname, List<IR.Id> params, List<IR.Id> locals,
+                     IR.Regs regs) {
+    this.gname = gname;
+    this.params = new ArrayList<>(params);
+    this.locals = new ArrayList<>(locals);
+    this.regs = regs;
+    head.owner = tail.owner = this;
+    head.next = tail;
+    tail.prev = head;
+  }
+
+  public FuncBuilder(IR.Func f) {
+    this(f.gname, Arrays.asList(f.params), Arrays.asList(f.locals), f.regs());
+    for (IR.Inst c: f.code)
+      append(c);
+  }
+
+  public int size() { return size; }
+
+  public Node first() { return head.next(); }
+
+  public Node last() { return tail.prev(); }
+
+  public Node append(IR.Inst c) { return link(new Node(c), tail.prev, tail); }
+
+  public Node prepend(IR.Inst c) { return link(new Node(c), head, head.next); }
+
+  public Node insertBefore(Node n, IR.Inst c) {
+    check(n);
+    return link(new Node(c), n.prev, n);
+  }
+
+  public Node insertAfter(Node n, IR.Inst c) {
+    check(n);
+    return link(new Node(c), n, n.next);
+  }
+
+  public void remove(Node n) {
+    check(n);
+    n.prev.next = n.next;
+    n.next.prev = n.prev;
+    n.owner = null;
+    size--;
+  }
+
+  public void replace(Node n, IR.Inst c) {
+    check(n);
+    n.inst = c;
+  }
+
+  Node link(Node n, Node prev, Node next) {
+    n.owner = this;
+    n.prev = prev;
+    n.next = next;
+    prev.next = n;
+    next.prev = n;
+    size++;
+    return n;
+  }
+
+  void check(Node n) {
+    if (n.owner != this || n.inst == null)
+      throw new IllegalArgumentException("Node is not in this function");
+  }
+
+  public Iterator<Node> iterator() {
+    return new Iterator<Node>() {
+      Node n = first();
+      public boolean hasNext() { return n != null; }
+      public Node next() {
+        if (n == null)
+          throw new NoSuchElementException();
+        Node r = n;
+        n = n.next();
+        return r;
+      }
+    };
+  }
+
+  // Return the current code as a list.
+  //
+  public List<IR.Inst> code() {
+    List<IR.Inst> l = new ArrayList<>(size);
+    for (Node n = first(); n != null; n = n.next())
+      l.add(n.inst);
+    return l;
+  }
+
+  // Build the immutable function.
+  //
+  public IR.Func freeze() {
+    return new IR.Func(gname, params, locals, code(), regs);
+  }
+
+}
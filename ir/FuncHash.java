@@ -0,0 +1,191 @@
+// CS322 HW2
+//
+
+// Structural hashing of IR functions.
+//
+// Two functions are structurally equal if they have the same code up to
+// a consistent renaming of their variables, temps and labels; the
+// function name is ignored. To compare them, each is put in a canonical
+// form first:
+//
+//   - params are renamed p0, p1, ... by position;
+//   - locals, then other variables, are renamed v0, v1, ... by first
+//     occurrence;
+//   - temps are renumbered t1, t2, ... and labels L0, L1, ... by first
+//     occurrence;
+//
+// and the canonical text is hashed with 64-bit FNV-1a. The hash only
+// depends on that text, so it is stable across runs and builds and can
+// key a persistent cache. equivalent() compares canonical forms exactly,
+// for use after a hash match.
+//
+// merge() folds each group of equal functions into one (IRGen's
+// "-mergefuncs"): the others are dropped and every reference to them,
+// whether a call target, another operand or a data item (a vtable
+// entry), names the one kept. Merging can make callers equal in turn,
+// so it repeats until no group is left.
+//
+package ir;
+import java.io.*;
+import java.util.*;
+
+public class FuncHash {
+
+  public static int merged = 0;		// functions dropped by merge
+
+  static final long FNV_OFFSET = 0xcbf29ce484222325L;
+  static final long FNV_PRIME  = 0x100000001b3L;
+
+  public static long hash(IR.Func f) {
+    String s = canonicalText(f);
+    long h = FNV_OFFSET;
+    for (int i = 0; i < s.length(); i++) {
+      char c = s.charAt(i);
+      h = (h ^ (c & 0xff)) * FNV_PRIME;
+      h = (h ^ (c >>> 8)) * FNV_PRIME;
+    }
+    return h;
+  }
+
+  public static boolean equivalent(IR.Func f, IR.Func g) {
+    return canonicalText(f).equals(canonicalText(g));
+  }
+
+  // Return the groups (of two or more) of structurally equal functions
+  // of a program, in program order.
+  //
+  public static List<List<IR.Func>> duplicates(IR.Program p) {
+    Map<String,List<IR.Func>> groups = new LinkedHashMap<>();
+    for (IR.Func f: p.funcs)
+      groups.computeIfAbsent(canonicalText(f), k -> new ArrayList<>()).add(f);
+    List<List<IR.Func>> dups = new ArrayList<>();
+    for (List<IR.Func> g: groups.values())
+      if (g.size() > 1)
+        dups.add(g);
+    return dups;
+  }
+
+  // Return p with each group of duplicate functions merged into its
+  // first member (or into _main, if it is in the group).
+  //
+  public static IR.Program merge(IR.Program p) {
+    for (List<List<IR.Func>> dups; !(dups = duplicates(p)).isEmpty(); ) {
+      Map<IR.Global,IR.Global> to = new HashMap<>();
+      for (List<IR.Func> g: dups) {
+        IR.Func keep = g.get(0);
+        for (IR.Func f: g)
+          if (f.gname.s.equals("_main"))
+            keep = f;
+        for (IR.Func f: g)
+          if (f != keep)
+            to.put(f.gname, keep.gname);
+      }
+      merged += to.size();
+      p = redirect(p, to);
+    }
+    return p;
+  }
+
+  // Return p without the functions named in to's keys, with every
+  // reference to one of them replaced by its value.
+  //
+  static IR.Program redirect(IR.Program p, Map<IR.Global,IR.Global> to) {
+    IRUtil.Subst m = new IRUtil.Subst() {
+      public IR.Src src(IR.Src s) {
+        return s instanceof IR.Global ? to.getOrDefault(s, (IR.Global) s) : s;
+      }
+    };
+    List<IR.Data> data = new ArrayList<>();
+    for (IR.Data d: p.data) {
+      IR.Global[] items = new IR.Global[d.items.length];
+      for (int k = 0; k < items.length; k++)
+        items[k] = (IR.Global) m.src(d.items[k]);
+      data.add(new IR.Data(d.name, d.size, items));
+    }
+    List<IR.Func> funcs = new ArrayList<>();
+    for (IR.Func f: p.funcs) {
+      if (to.containsKey(f.gname))
+        continue;
+      List<IR.Inst> code = new ArrayList<>();
+      for (IR.Inst c: f.code) {
+        c = IRUtil.subst(c, m);
+        if (c instanceof IR.Call && to.containsKey(((IR.Call) c).tgt)) {
+          IR.Call call = (IR.Call) c;
+          c = new IR.Call((IR.CallTgt) m.src((IR.Src) call.tgt), false,
+                          call.args, call.rdst);
+        }
+        code.add(c);
+      }
+      funcs.add(new IR.Func(f.gname, Arrays.asList(f.params),
+                            Arrays.asList(f.locals), code, f.regs()));
+    }
+    return new IR.Program(data, funcs);
+  }
+
+  // Return the canonical text of f (its printed canonical form).
+  //
+  public static String canonicalText(IR.Func f) {
+    return IRWriter.toString(canonical(f), false);
+  }
+
+  // Return f with its name blanked and its variables, temps and labels
+  // renamed by position/first occurrence.
+  //
+  public static IR.Func canonical(IR.Func f) {
+    IR.Regs regs = new IR.Regs();
+    Map<IR.Id,IR.Id> ids = new HashMap<>();
+    Map<Integer,IR.Temp> temps = new HashMap<>();
+    Map<String,IR.Label> labels = new HashMap<>();
+    List<IR.Id> params = new ArrayList<>();
+    for (IR.Id id: f.params) {
+      IR.Id nid = regs.id("p" + params.size());
+      ids.putIfAbsent(id, nid);
+      params.add(nid);
+    }
+    IRUtil.Subst m = new IRUtil.Subst() {
+      public IR.Src src(IR.Src s) {
+        if (s instanceof IR.Id)
+          return id((IR.Id) s);
+        if (s instanceof IR.Temp)
+          return temps.computeIfAbsent(((IR.Temp) s).num,
+                                       k -> regs.temp(temps.size() + 1));
+        return s;
+      }
+      public IR.Dest dest(IR.Dest d) { return (IR.Dest) src((IR.Src) d); }
+      public IR.Label label(IR.Label l) {
+        return labels.computeIfAbsent(l.name,
+                                      k -> new IR.Label("L" + labels.size()));
+      }
+      int nvars = 0;
+      IR.Id id(IR.Id id) {
+        return ids.computeIfAbsent(id, k -> regs.id("v" + nvars++));
+      }
+    };
+    List<IR.Id> locals = new ArrayList<>();
+    for (IR.Id id: f.locals)
+      locals.add((IR.Id) m.src(id));
+    List<IR.Inst> code = new ArrayList<>();
+    for (IR.Inst c: f.code)
+      code.add(IRUtil.subst(c, m));
+    return new IR.Func(IR.Global.of("_"), params, locals, code, regs);
+  }
+
+  //------------------------------------------------------------------------------
+  // Usage: java ir.FuncHash file.ir ...  -- print each function's hash and
+  //                                        the groups of identical bodies
+  //
+  public static void main(String[] args) throws Exception {
+    for (String a: args) {
+      IR.Program p = IRReader.read(new File(a));
+      for (IR.Func f: p.funcs)
+        System.out.printf("%016x %s\n", hash(f), f.gname);
+      for (List<IR.Func> g: duplicates(p)) {
+        StringBuilder sb = new StringBuilder("# same code:");
+        for (IR.Func f: g)
+          sb.append(' ').append(f.gname);
+        System.out.println(sb);
+      }
+    }
+  }
+
+}
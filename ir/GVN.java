@@ -0,0 +1,186 @@
+// CS322 HW2
+//
+
+// Global value numbering / common subexpression elimination, on SSA
+// form.
+//
+// Every register gets a value number: the register itself, or, for
+// "x = y", y's value number (so copies do not hide redundancy). A Binop
+// or Unop is keyed on its operator and its operands' value numbers, with
+// the operands of commutative operators put in a fixed order. Walking
+// the dominator tree, a table of the keys available on entry to each
+// block maps them to the register holding the value; a computation whose
+// key is already in the table is deleted, and its dst is replaced by
+// that register everywhere (the earlier definition dominates all the
+// uses, since it dominates the deleted one). The table is scoped: a
+// block's entries are removed when the walk leaves its subtree.
+//
+// Loads are treated conservatively: a Load is keyed on its type, offset
+// and base's value number, but only matches an earlier Load in the same
+// block with no Store or Call in between.
+//
+package ir;
+import java.util.*;
+
+public class GVN {
+
+  public static int exprs = 0;		// Binops/Unops removed
+  public static int loads = 0;		// Loads removed
+
+  // Program ---
+  //
+  public static IR.Program run(IR.Program p) {
+    IR.Func[] out = new IR.Func[p.funcs.length];
+    for (int i = 0; i < out.length; i++)
+      out[i] = run(p.funcs[i]);
+    return new IR.Program(p.data, out);
+  }
+
+  // Func (in SSA form) ---
+  //
+  public static IR.Func run(IR.Func f) {
+    return new GVN(f).rewrite();
+  }
+
+  final IR.Func f;
+  final CFG cfg;
+  final IR.Src[] vn;			// by slot: value number (null: itself)
+  final IR.Reg[] repl;			// by slot: replacement of deleted dst
+  final boolean[] dead;			// by inst
+  final Map<String,IR.Reg> avail = new HashMap<>();
+  final List<String> trail = new ArrayList<>();	// keys added, in order
+
+  GVN(IR.Func f) {
+    this.f = f;
+    cfg = new CFG(f);
+    vn = new IR.Src[f.slotCount()];
+    repl = new IR.Reg[f.slotCount()];
+    dead = new boolean[f.code.length];
+    walk();
+  }
+
+  // Walk the dominator tree (iteratively), numbering each block on the
+  // way down and dropping its keys on the way up.
+  //
+  void walk() {
+    int nb = cfg.nblocks;
+    if (nb == 0)
+      return;
+    int[] stack = new int[nb], edge = new int[nb], mark = new int[nb];
+    int sp = 0;
+    stack[sp++] = 0;
+    number(0);
+    while (sp > 0) {
+      int b = stack[sp - 1];
+      if (edge[b] < cfg.kids[b].length) {
+        int c = cfg.kids[b][edge[b]++];
+        mark[c] = trail.size();
+        number(c);
+        stack[sp++] = c;
+      } else {
+        while (trail.size() > mark[b])
+          avail.remove(trail.remove(trail.size() - 1));
+        sp--;
+      }
+    }
+  }
+
+  void number(int b) {
+    Map<String,IR.Reg> loaded = new HashMap<>();
+    for (int i = cfg.start[b]; i < cfg.end[b]; i++) {
+      IR.Inst c = f.code[i];
+      if (c instanceof IR.Store || c instanceof IR.Call) {
+        loaded.clear();
+      } else if (c instanceof IR.Move) {
+        IR.Move m = (IR.Move) c;
+        if (m.src instanceof IR.Reg)
+          vn[slot(m.dst)] = value(m.src);
+      } else if (c instanceof IR.Binop || c instanceof IR.Unop) {
+        IR.Dest d = IRUtil.def(c);
+        String k = key(c);
+        IR.Reg r = avail.get(k);
+        if (r != null) {
+          replace(i, d, r);
+          exprs++;
+        } else {
+          avail.put(k, (IR.Reg) d);
+          trail.add(k);
+        }
+      } else if (c instanceof IR.Load) {
+        IR.Load l = (IR.Load) c;
+        String k = l.type + " " + l.addr.offset + " "
+          + name(value(l.addr.base));
+        IR.Reg r = loaded.get(k);
+        if (r != null) {
+          replace(i, l.dst, r);
+          loads++;
+        } else {
+          loaded.put(k, (IR.Reg) l.dst);
+        }
+      }
+    }
+  }
+
+  void replace(int i, IR.Dest d, IR.Reg r) {
+    dead[i] = true;
+    repl[slot(d)] = r;
+    vn[slot(d)] = (IR.Src) r;
+  }
+
+  // Keys ---
+  //
+  String key(IR.Inst c) {
+    if (c instanceof IR.Unop) {
+      IR.Unop u = (IR.Unop) c;
+      return u.op + " " + name(value(u.src));
+    }
+    IR.Binop x = (IR.Binop) c;
+    String a = name(value(x.src1)), b = name(value(x.src2));
+    if (commutative(x.op) && a.compareTo(b) > 0) {
+      String t = a;
+      a = b;
+      b = t;
+    }
+    return x.op + " " + a + " " + b;
+  }
+
+  static boolean commutative(IR.BOP op) {
+    return op == IR.AOP.ADD || op == IR.AOP.MUL || op == IR.AOP.AND
+      || op == IR.AOP.OR || op == IR.ROP.EQ || op == IR.ROP.NE;
+  }
+
+  IR.Src value(IR.Src s) {
+    if (!(s instanceof IR.Reg))
+      return s;
+    IR.Src v = vn[slot(s)];
+    return v == null ? s : v;
+  }
+
+  // Registers are named by slot, so a variable called "t1" and temp 1
+  // cannot be confused.
+  //
+  String name(IR.Src s) {
+    return s instanceof IR.Reg ? "%" + slot(s) : s.toString();
+  }
+
+  int slot(Object r) { return f.slotOf((IR.Reg) r); }
+
+  // Rewriting ---
+  //
+  IR.Func rewrite() {
+    IRUtil.Subst m = new IRUtil.Subst() {
+      public IR.Src src(IR.Src s) {
+        while (s instanceof IR.Reg && repl[slot(s)] != null)
+          s = (IR.Src) repl[slot(s)];
+        return s;
+      }
+    };
+    List<IR.Inst> code = new ArrayList<>();
+    for (int i = 0; i < f.code.length; i++)
+      if (!dead[i])
+        code.add(IRUtil.subst(f.code[i], m));
+    return new IR.Func(f.gname, Arrays.asList(f.params),
+                       Arrays.asList(f.locals), code, f.regs());
+  }
+
+}
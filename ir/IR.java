@@ -19,19 +19,11 @@ public class IR {
     }
   }
 
-  public static final IntLit ZERO = new IntLit(0);
+  public static final IntLit ZERO = IntLit.of(0);
   public static final BoolLit TRUE = new BoolLit(true);
   public static final BoolLit FALSE = new BoolLit(false);
   public static final StrLit NULLSTR = new StrLit("");
 
-  public static boolean indexed = false;
-  public static int linenum = 0;
-  static String line(boolean count, String s) {
-    String idx = (indexed && count) ? (linenum++) + ". " 
-                   + (linenum<11 ? " " : "") : "";
-    return idx + s;
-  }
-
   // Types
 
   public static enum Type {
@@ -54,18 +46,10 @@ public class IR {
       this(dl.toArray(new Data[0]), fl.toArray(new Func[0]));
     }
     public String toIndexedString() { 
-      indexed = true;
-      return toString();
+      return IRWriter.toString(this, true);
     }
     public String toString() { 
-      String str = "# IR Program\n";
-      if (data != null && data.length > 0)
-	str += "\n";
-      for (Data d: data)
-	str += d;
-      for (Func f: funcs)
-	str += "\n" + f;
-      return str;
+      return IRWriter.toString(this, false);
     }
   }
 
@@ -83,13 +67,10 @@ public class IR {
       this(n, i, ll.toArray(new Global[0]));
     }
     public String toString() { 
-      String str = "data " + name + " (sz=" + size + "): ";
-      if (items.length > 0) {
-	str += items[0].toString();
-	for (int i=1; i<items.length; i++)
-	  str += ", " + items[i];
-      }
-      return str + "\n";
+      StringBuilder str = new StringBuilder("data " + name + " (sz=" + size + "): ");
+      for (int i=0; i<items.length; i++)
+	str.append(i == 0 ? "" : ", ").append(items[i]);
+      return str.append("\n").toString();
     }
   }
 
@@ -100,41 +81,218 @@ public class IR {
     public final Id[] params;
     public final Id[] locals;
     public final Inst[] code;
+    private ArrayList<Reg> slotRegs;	// null until first needed
+    private final HashMap<Id,Integer> idSlots = new HashMap<>();
+    private int[] tempSlots = new int[0];
+    private int[] targets;		// null until first needed
+    private final HashMap<String,Integer> labelIdx = new HashMap<>();
+    private Regs regs;			// null until first needed
 
+    public Func(Global n, Id[] p, Id[] l, Inst[] c, Regs r) {
+      gname=n; params=p; locals=l; code=c; regs=r;
+    }
     public Func(Global n, Id[] p, Id[] l, Inst[] c) {
-      gname=n; params=p; locals=l; code=c; 
+      this(n, p, l, c, null);
     }
-    public Func(Global n, List<Id> pl, List<Id> ll, List<Inst> cl) {
+    public Func(Global n, List<Id> pl, List<Id> ll, List<Inst> cl, Regs r) {
       this(n, pl.toArray(new Id[0]), ll.toArray(new Id[0]),
-	   cl.toArray(new Inst[0])); 
+	   cl.toArray(new Inst[0]), r); 
+    }
+    public Func(Global n, List<Id> pl, List<Id> ll, List<Inst> cl) {
+      this(n, pl, ll, cl, null);
+    }
+
+    // Return the function's register table: the one it was built with,
+    // or, for a Func built without one, a table of the registers it
+    // mentions.
+    public Regs regs() {
+      if (regs != null)
+        return regs;
+      regs = new Regs();
+      for (Id id: params)
+        regs.add(id);
+      for (Id id: locals)
+        regs.add(id);
+      for (Inst c: code) {
+        for (Src s: IRUtil.uses(c))
+          if (s instanceof Reg)
+            regs.add((Reg) s);
+        Dest d = IRUtil.def(c);
+        if (d != null)
+          regs.add((Reg) d);
+      }
+      return regs;
+    }
+
+    // Number every register of the function densely from 0: params in
+    // order, then locals, then other ids and temps in order of first
+    // appearance. An engine can then keep a frame in a flat array and
+    // resolve each operand to its slot once, up front. The numbering is
+    // done on the first call of slotCount, slotOf or slotReg, since most
+    // of the Funcs that passes build in between are never asked.
+    private ArrayList<Reg> slots() {
+      if (slotRegs != null)
+        return slotRegs;
+      slotRegs = new ArrayList<>();
+      for (Id id: params)
+        slot(id);
+      for (Id id: locals)
+        slot(id);
+      for (Inst c: code) {
+        for (Src s: IRUtil.uses(c))
+          if (s instanceof Reg)
+            slot((Reg) s);
+        Dest d = IRUtil.def(c);
+        if (d != null)
+          slot((Reg) d);
+      }
+      return slotRegs;
+    }
+    private void slot(Reg r) {
+      if (find(r) >= 0)
+        return;
+      if (r instanceof Id) {
+        idSlots.put((Id) r, slotRegs.size());
+      } else {
+        int num = ((Temp) r).num;
+        if (num >= tempSlots.length) {
+          int k = tempSlots.length;
+          tempSlots = Arrays.copyOf(tempSlots, Math.max(num + 1, 2 * k));
+          Arrays.fill(tempSlots, k, tempSlots.length, -1);
+        }
+        tempSlots[num] = slotRegs.size();
+      }
+      slotRegs.add(r);
     }
+    private int find(Reg r) {
+      if (r instanceof Id) {
+        Integer i = idSlots.get(r);
+        return i == null ? -1 : i;
+      }
+      int num = ((Temp) r).num;
+      return num < tempSlots.length ? tempSlots[num] : -1;
+    }
+
+    // Return the number of frame slots (see slotOf).
+    public int slotCount() { return slots().size(); }
+
+    // Return r's slot in this function (-1 if r does not occur in it).
+    public int slotOf(Reg r) {
+      slots();
+      return find(r);
+    }
+
+    // Return the register held in slot i.
+    public Reg slotReg(int i) { return slots().get(i); }
+
+    // Return the code index of each branch's label: entry i is the target
+    // of the Jump/CJump at index i (-1 for other insts and for labels not
+    // declared in this function), so a taken branch is just
+    // "pc = targets()[pc]". The table is built on first use, like the
+    // slots.
+    public int[] targets() {
+      if (targets != null)
+        return targets;
+      for (int i = 0; i < code.length; i++)
+        if (code[i] instanceof LabelDec)
+          labelIdx.putIfAbsent(((LabelDec) code[i]).lab.name, i);
+      int[] t = new int[code.length];
+      for (int i = 0; i < code.length; i++) {
+        Label l = code[i] instanceof Jump ? ((Jump) code[i]).lab
+          : code[i] instanceof CJump ? ((CJump) code[i]).lab : null;
+        Integer k = l == null ? null : labelIdx.get(l.name);
+        t[i] = k == null ? -1 : k;
+      }
+      return targets = t;
+    }
+
+    // Return the index of l's LabelDec in code (-1 if there is none).
+    public int labelIndex(Label l) {
+      targets();
+      Integer i = labelIdx.get(l.name);
+      return i == null ? -1 : i;
+    }
+
     public String toString() { 
-      String header = line(false, gname.s + " " + IdArrayToString(params)
-			   + "\n")
-	              + (locals.length==0? "" : 
-			 line(false, IdArrayToString(locals) + "\n"));
-      String body = "";
-      linenum = 0;
-      for (Inst s: code)
-	body += s.toString();
-      return header + line(false,"{\n") + body + line(false,"}\n");
+      return IRWriter.toString(this, false);
+    }
+  }
+
+  // A function's register table: one canonical Id per name and one Temp
+  // per number, so that the registers of a function compare by identity.
+  // Whoever builds a function makes its table and creates every register
+  // through it: IRGen per method, IRReader and the .irb decoder per
+  // function. A pass takes the table of the Func it rewrites (Func.regs),
+  // makes its new registers with freshTemp and freshId, and hands the
+  // table on to the Func it builds.
+
+  public static class Regs {
+    private final HashMap<String,Id> ids = new HashMap<>();
+    private Temp[] temps = new Temp[64];
+    private int maxTemp = 0;
+
+    // Return the Id named s.
+    public Id id(String s) {
+      Id id = ids.get(s);
+      if (id == null)
+        ids.put(s, id = new Id(s));
+      return id;
+    }
+
+    // Return the Temp numbered n.
+    public Temp temp(int n) {
+      if (n >= temps.length || temps[n] == null)
+        put(new Temp(n));
+      return temps[n];
+    }
+    private void put(Temp t) {
+      if (t.num >= temps.length)
+        temps = Arrays.copyOf(temps, Math.max(t.num + 1, 2 * temps.length));
+      temps[t.num] = t;
+      maxTemp = Math.max(maxTemp, t.num);
+    }
+
+    // Return a Temp numbered above all the others in the table.
+    public Temp freshTemp() { return temp(maxTemp + 1); }
+
+    // Return a new Id named nm, or, if that is taken, nm_1, nm_2, ...
+    public Id freshId(String nm) {
+      String s = nm;
+      for (int k = 1; ids.containsKey(s); k++)
+        s = nm + "_" + k;
+      return id(s);
+    }
+
+    // Return the largest temp number in the table.
+    public int maxTemp() { return maxTemp; }
+
+    // Make r the table's register for its name or number, unless the
+    // table already has one.
+    void add(Reg r) {
+      if (r instanceof Id) {
+        ids.putIfAbsent(((Id) r).s, (Id) r);
+      } else {
+        int n = ((Temp) r).num;
+        if (n >= temps.length || temps[n] == null)
+          put((Temp) r);
+      }
     }
   }
 
   public static String IdArrayToString(Id[] vars) {
-    String s = "(";
-    if (vars.length > 0) {
-      s += vars[0];
-      for (int i=1; i<vars.length; i++)
-	s += ", " + vars[i];
-    }
-    return s + ")";
+    StringBuilder s = new StringBuilder("(");
+    for (int i=0; i<vars.length; i++)
+      s.append(i == 0 ? "" : ", ").append(vars[i]);
+    return s.append(")").toString();
   }
 
   // Instructions
 
   public static abstract class Inst {
     abstract public Object accept(InstVisitor v) throws IRException;
+    abstract public <R> R accept(TypedInstVisitor<R> v);
+    abstract public int accept(IntInstVisitor v);
+    abstract public long accept(LongInstVisitor v);
   }
 
   public interface InstVisitor {
@@ -148,6 +306,55 @@ public class IR {
     Object visit(CJump c) throws IRException;
     Object visit(Jump c) throws IRException;
     Object visit(LabelDec c) throws IRException;
+    Object visit(Phi c) throws IRException;
+  }
+
+  // Visitor variants with a typed (or primitive) result and no checked
+  // exception; the primitive ones let evaluators avoid boxing. Each kind
+  // (typed, int, long) exists for insts, operands and dsts alike:
+  // IRUtil.def/uses are TypedInstVisitors, and FlatFunc encodes insts
+  // and operands with the int ones.
+
+  public interface TypedInstVisitor<R> {
+    R visit(Binop c);
+    R visit(Unop c);
+    R visit(Move c);
+    R visit(Load c);
+    R visit(Store c);
+    R visit(Call c);
+    R visit(Return c);
+    R visit(CJump c);
+    R visit(Jump c);
+    R visit(LabelDec c);
+    R visit(Phi c);
+  }
+
+  public interface IntInstVisitor {
+    int visit(Binop c);
+    int visit(Unop c);
+    int visit(Move c);
+    int visit(Load c);
+    int visit(Store c);
+    int visit(Call c);
+    int visit(Return c);
+    int visit(CJump c);
+    int visit(Jump c);
+    int visit(LabelDec c);
+    int visit(Phi c);
+  }
+
+  public interface LongInstVisitor {
+    long visit(Binop c);
+    long visit(Unop c);
+    long visit(Move c);
+    long visit(Load c);
+    long visit(Store c);
+    long visit(Call c);
+    long visit(Return c);
+    long visit(CJump c);
+    long visit(Jump c);
+    long visit(LabelDec c);
+    long visit(Phi c);
   }
 
   public static class Binop extends Inst {
@@ -159,11 +366,14 @@ public class IR {
       op=o; dst=d; src1=s1; src2=s2; 
     }
     public String toString() { 
-      return line(true, " " + dst + " = " + src1 + " " + op + " " + src2 + "\n");
+      return " " + dst + " = " + src1 + " " + op + " " + src2 + "\n";
     }
     public Object accept(InstVisitor v) throws IRException {
       return v.visit(this);
     }
+    public <R> R accept(TypedInstVisitor<R> v) { return v.visit(this); }
+    public int accept(IntInstVisitor v) { return v.visit(this); }
+    public long accept(LongInstVisitor v) { return v.visit(this); }
   }
 
   public static class Unop extends Inst {
@@ -173,11 +383,14 @@ public class IR {
 
     public Unop(UOP o, Dest d, Src s) { op=o; dst=d; src=s; }
     public String toString() { 
-      return line(true, " " + dst + " = " + op + src + "\n");
+      return " " + dst + " = " + op + src + "\n";
     }
     public Object accept(InstVisitor v) throws IRException {
       return v.visit(this);
     }
+    public <R> R accept(TypedInstVisitor<R> v) { return v.visit(this); }
+    public int accept(IntInstVisitor v) { return v.visit(this); }
+    public long accept(LongInstVisitor v) { return v.visit(this); }
   }
 
   public static class Move extends Inst {
@@ -186,11 +399,14 @@ public class IR {
 
     public Move(Dest d, Src s) { dst=d; src=s; }
     public String toString() { 
-      return line(true, " " + dst + " = " + src + "\n"); 
+      return " " + dst + " = " + src + "\n"; 
     }
     public Object accept(InstVisitor v) throws IRException {
       return v.visit(this);
     }
+    public <R> R accept(TypedInstVisitor<R> v) { return v.visit(this); }
+    public int accept(IntInstVisitor v) { return v.visit(this); }
+    public long accept(LongInstVisitor v) { return v.visit(this); }
   }
 
   public static class Load extends Inst {
@@ -200,11 +416,14 @@ public class IR {
 
     public Load (Type t, Dest d, Addr a) { type=t; dst=d; addr=a; }
     public String toString() { 
-      return line(true, " " + dst + " = " + addr + type + "\n"); 
+      return " " + dst + " = " + addr + type + "\n"; 
     }
     public Object accept(InstVisitor v) throws IRException {
       return v.visit(this);
     }
+    public <R> R accept(TypedInstVisitor<R> v) { return v.visit(this); }
+    public int accept(IntInstVisitor v) { return v.visit(this); }
+    public long accept(LongInstVisitor v) { return v.visit(this); }
   }
     
   public static class Store extends Inst {
@@ -214,11 +433,14 @@ public class IR {
 
     public Store(Type t, Addr a, Src s) { type=t; addr=a; src=s; }
     public String toString() { 
-      return line(true, " " + addr + type + " = " + src + "\n"); 
+      return " " + addr + type + " = " + src + "\n"; 
     }
     public Object accept(InstVisitor v) throws IRException {
       return v.visit(this);
     }
+    public <R> R accept(TypedInstVisitor<R> v) { return v.visit(this); }
+    public int accept(IntInstVisitor v) { return v.visit(this); }
+    public long accept(LongInstVisitor v) { return v.visit(this); }
   }
 
   public static class Call extends Inst {
@@ -237,20 +459,19 @@ public class IR {
       this(f, b, al.toArray(new Src[0]), null);
     }
     public String toString() { 
-      String arglist = "(";
-      if (args.length > 0) {
-	arglist += args[0];
-	for (int i=1; i<args.length; i++)
-	  arglist += ", " + args[i];
-      }
-      arglist +=  ")";
+      StringBuilder arglist = new StringBuilder("(");
+      for (int i=0; i<args.length; i++)
+	arglist.append(i == 0 ? "" : ", ").append(args[i]);
+      arglist.append(")");
       String retstr = (rdst==null) ? " " : " " + rdst + " = ";
-      return line(true, retstr +  "call " + (ind ? "* " : "") +
-		  tgt + arglist + "\n");
+      return retstr +  "call " + (ind ? "* " : "") + tgt + arglist + "\n";
     }
     public Object accept(InstVisitor v) throws IRException {
       return v.visit(this);
     }
+    public <R> R accept(TypedInstVisitor<R> v) { return v.visit(this); }
+    public int accept(IntInstVisitor v) { return v.visit(this); }
+    public long accept(LongInstVisitor v) { return v.visit(this); }
   }
 
   public static class Return extends Inst {
@@ -259,11 +480,14 @@ public class IR {
     public Return() { val=null; }
     public Return(Src s) { val=s; }
     public String toString() { 
-      return line(true, " return " + (val==null ? "" : val) + "\n"); 
+      return " return " + (val==null ? "" : val) + "\n"; 
     }
     public Object accept(InstVisitor v) throws IRException {
       return v.visit(this);
     }
+    public <R> R accept(TypedInstVisitor<R> v) { return v.visit(this); }
+    public int accept(IntInstVisitor v) { return v.visit(this); }
+    public long accept(LongInstVisitor v) { return v.visit(this); }
   }
 
   public static class CJump extends Inst {
@@ -275,12 +499,15 @@ public class IR {
       op=o; src1=s1; src2=s2; lab=l; 
     }
     public String toString() { 
-      return line(true, " if " + src1 + " " + op + " " + src2 + 
-	" goto " + lab + "\n");
+      return " if " + src1 + " " + op + " " + src2 + 
+	" goto " + lab + "\n";
     }
     public Object accept(InstVisitor v) throws IRException {
       return v.visit(this);
     }
+    public <R> R accept(TypedInstVisitor<R> v) { return v.visit(this); }
+    public int accept(IntInstVisitor v) { return v.visit(this); }
+    public long accept(LongInstVisitor v) { return v.visit(this); }
   }
 
   public static class Jump extends Inst {
@@ -288,11 +515,14 @@ public class IR {
 
     public Jump(Label l) { lab=l; }
     public String toString() { 
-      return line(true, " goto " + lab + "\n"); 
+      return " goto " + lab + "\n"; 
     }
     public Object accept(InstVisitor v) throws IRException {
       return v.visit(this);
     }
+    public <R> R accept(TypedInstVisitor<R> v) { return v.visit(this); }
+    public int accept(IntInstVisitor v) { return v.visit(this); }
+    public long accept(LongInstVisitor v) { return v.visit(this); }
   }
 
   public static class LabelDec extends Inst { 
@@ -301,11 +531,38 @@ public class IR {
     public LabelDec(Label l) { lab=l; }
 
     public String toString() { 
-	return line(true, lab + ":\n"); 
+	return lab + ":\n"; 
     }
     public Object accept(InstVisitor v) throws IRException {
       return v.visit(this);
     }
+    public <R> R accept(TypedInstVisitor<R> v) { return v.visit(this); }
+    public int accept(IntInstVisitor v) { return v.visit(this); }
+    public long accept(LongInstVisitor v) { return v.visit(this); }
+  }
+
+  // SSA phi: dst gets args[k] when control arrives from the block that
+  // starts with label preds[k]. Only exists between SSA.toSSA and
+  // SSA.fromSSA; neither IRInterp nor the text parsers know it.
+  public static class Phi extends Inst {
+    public final Dest dst;
+    public final Label[] preds;
+    public final Src[] args;
+
+    public Phi(Dest d, Label[] p, Src[] a) { dst=d; preds=p; args=a; }
+    public String toString() { 
+      StringBuilder s = new StringBuilder(" " + dst + " = phi(");
+      for (int i=0; i<args.length; i++)
+        s.append(i == 0 ? "" : ", ").append(preds[i]).append(": ")
+         .append(args[i]);
+      return s.append(")\n").toString();
+    }
+    public Object accept(InstVisitor v) throws IRException {
+      return v.visit(this);
+    }
+    public <R> R accept(TypedInstVisitor<R> v) { return v.visit(this); }
+    public int accept(IntInstVisitor v) { return v.visit(this); }
+    public long accept(LongInstVisitor v) { return v.visit(this); }
   }
 
   // Label
@@ -337,6 +594,9 @@ public class IR {
 
   public interface Src {
     Object accept(SrcVisitor v) throws IRException;
+    <R> R accept(TypedSrcVisitor<R> v);
+    int accept(IntSrcVisitor v);
+    long accept(LongSrcVisitor v);
   }
 
   public interface SrcVisitor {
@@ -348,8 +608,38 @@ public class IR {
     Object visit(StrLit rand) throws IRException;
   }
 
+  public interface TypedSrcVisitor<R> {
+    R visit(Id rand);
+    R visit(Temp rand);
+    R visit(Global rand);
+    R visit(IntLit rand);
+    R visit(BoolLit rand);
+    R visit(StrLit rand);
+  }
+
+  public interface IntSrcVisitor {
+    int visit(Id rand);
+    int visit(Temp rand);
+    int visit(Global rand);
+    int visit(IntLit rand);
+    int visit(BoolLit rand);
+    int visit(StrLit rand);
+  }
+
+  public interface LongSrcVisitor {
+    long visit(Id rand);
+    long visit(Temp rand);
+    long visit(Global rand);
+    long visit(IntLit rand);
+    long visit(BoolLit rand);
+    long visit(StrLit rand);
+  }
+
   public interface Dest {
     Object accept(DestVisitor v) throws IRException;
+    <R> R accept(TypedDestVisitor<R> v);
+    int accept(IntDestVisitor v);
+    long accept(LongDestVisitor v);
   }
 
   public interface DestVisitor {
@@ -358,6 +648,21 @@ public class IR {
       //    Object visit(Global rand) throws IRException;
   }
 
+  public interface TypedDestVisitor<R> {
+    R visit(Id rand);
+    R visit(Temp rand);
+  }
+
+  public interface IntDestVisitor {
+    int visit(Id rand);
+    int visit(Temp rand);
+  }
+
+  public interface LongDestVisitor {
+    long visit(Id rand);
+    long visit(Temp rand);
+  }
+
   public interface CallTgt {
   }
 
@@ -370,7 +675,7 @@ public class IR {
     public Id(String s) { this.s=s; }
     public String toString() { return s; }
     public boolean equals(Object l) {
-      return (l instanceof Id && (((Id) l).s.equals(s)));
+      return l == this || (l instanceof Id && (((Id) l).s.equals(s)));
     }
     public int hashCode() {  
       return s.hashCode(); 
@@ -378,9 +683,15 @@ public class IR {
     public Object accept(SrcVisitor v) throws IRException {
       return v.visit(this);
     }
+    public <R> R accept(TypedSrcVisitor<R> v) { return v.visit(this); }
+    public int accept(IntSrcVisitor v) { return v.visit(this); }
+    public long accept(LongSrcVisitor v) { return v.visit(this); }
     public Object accept(DestVisitor v) throws IRException {
       return v.visit(this);
     }
+    public <R> R accept(TypedDestVisitor<R> v) { return v.visit(this); }
+    public int accept(IntDestVisitor v) { return v.visit(this); }
+    public long accept(LongDestVisitor v) { return v.visit(this); }
   }
 
   public static class Temp implements Reg, Src, Dest, CallTgt  {
@@ -393,7 +704,7 @@ public class IR {
     public static int getcnt() { return Temp.cnt; }
     public String toString() { return "t" + num; }
     public boolean equals(Object l) {
-      return (l instanceof Temp && (((Temp) l).num == num));
+      return l == this || (l instanceof Temp && (((Temp) l).num == num));
     }
     public int hashCode() {  
       return num; 
@@ -401,29 +712,71 @@ public class IR {
     public Object accept(SrcVisitor v) throws IRException {
       return v.visit(this);
     }
+    public <R> R accept(TypedSrcVisitor<R> v) { return v.visit(this); }
+    public int accept(IntSrcVisitor v) { return v.visit(this); }
+    public long accept(LongSrcVisitor v) { return v.visit(this); }
     public Object accept(DestVisitor v) throws IRException {
       return v.visit(this);
     }
+    public <R> R accept(TypedDestVisitor<R> v) { return v.visit(this); }
+    public int accept(IntDestVisitor v) { return v.visit(this); }
+    public long accept(LongDestVisitor v) { return v.visit(this); }
   }
 
   public static class Global implements Src, CallTgt {
+    private static final HashMap<String,Global> table = new HashMap<>(); // program-wide
     public final String s;
 
     public Global(String s) { this.s = s; }
+    // Return the canonical Global named s.
+    public static Global of(String s) {
+      Global g = table.get(s);
+      if (g == null)
+        table.put(s, g = new Global(s));
+      return g;
+    }
     public String toString() { return s; }  	// should be environment dependent
+    public boolean equals(Object l) {
+      return l == this || (l instanceof Global && (((Global) l).s.equals(s)));
+    }
+    public int hashCode() {  
+      return s.hashCode(); 
+    }
     public Object accept(SrcVisitor v) throws IRException {
       return v.visit(this);
     }
+    public <R> R accept(TypedSrcVisitor<R> v) { return v.visit(this); }
+    public int accept(IntSrcVisitor v) { return v.visit(this); }
+    public long accept(LongSrcVisitor v) { return v.visit(this); }
   }
 
   public static class IntLit implements Src {
+    private static final int LO = -128, HI = 1024;	// cached range
+    private static final IntLit[] cache = new IntLit[HI - LO + 1];
+    static {
+      for (int k = 0; k < cache.length; k++)
+        cache[k] = new IntLit(k + LO);
+    }
     public final int i;
 
     public IntLit(int v) { i=v; }
+    // Return a shared IntLit for small values, a new one otherwise.
+    public static IntLit of(int v) {
+      return (v >= LO && v <= HI) ? cache[v - LO] : new IntLit(v);
+    }
     public String toString() { return i + ""; }
+    public boolean equals(Object l) {
+      return l == this || (l instanceof IntLit && ((IntLit) l).i == i);
+    }
+    public int hashCode() {  
+      return i; 
+    }
     public Object accept(SrcVisitor v) throws IRException {
       return v.visit(this);
     }
+    public <R> R accept(TypedSrcVisitor<R> v) { return v.visit(this); }
+    public int accept(IntSrcVisitor v) { return v.visit(this); }
+    public long accept(LongSrcVisitor v) { return v.visit(this); }
   }
 
   public static class BoolLit implements Src {
@@ -434,6 +787,9 @@ public class IR {
     public Object accept(SrcVisitor v) throws IRException {
       return v.visit(this);
     }
+    public <R> R accept(TypedSrcVisitor<R> v) { return v.visit(this); }
+    public int accept(IntSrcVisitor v) { return v.visit(this); }
+    public long accept(LongSrcVisitor v) { return v.visit(this); }
   }
 
   public static class StrLit implements Src {
@@ -444,6 +800,9 @@ public class IR {
     public Object accept(SrcVisitor v) throws IRException {
       return v.visit(this);
     }
+    public <R> R accept(TypedSrcVisitor<R> v) { return v.visit(this); }
+    public int accept(IntSrcVisitor v) { return v.visit(this); }
+    public long accept(LongSrcVisitor v) { return v.visit(this); }
   }
 
   // Operators
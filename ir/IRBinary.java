@@ -0,0 +1,461 @@
+// CS322 HW2
+//
+
+// Compact binary encoding of IR programs (.irb files).
+//
+// Layout (all counts and indices are unsigned LEB128 varints; signed
+// ints are zigzag-encoded varints):
+//
+//   "IRB1"
+//   pool:   count, then count UTF-8 strings (length, bytes)
+//   data:   count, then per record: name, size, #items, items
+//   funcs:  count, then per func:
+//             name, #params, params, #locals, locals, #others, others,
+//             #insts, insts
+//
+// Global names, string literals, labels and variable names are stored
+// once in the pool and referred to by pool index. Inside a function, a
+// variable is referred to by its slot: its position in params, then
+// locals, then "others" (variables used but not declared). Temps are
+// stored by number.
+//
+// An inst is an opcode byte followed by its operands:
+//   BINOP op dst src src     UNOP op dst src     MOVE dst src
+//   LOAD type dst addr       STORE type addr src
+//   CALL flags tgt #args args [rdst]             (flags: 1=ind, 2=rdst)
+//   RETURN flag [src]        CJUMP op src src label
+//   JUMP label               LABEL label
+// An operand is a kind byte plus payload (slot, temp number, pool index
+// or int); an address is its base operand plus a signed offset.
+//
+package ir;
+import java.io.*;
+import java.util.*;
+
+public class IRBinary {
+
+  static final byte[] MAGIC = { 'I', 'R', 'B', '1' };
+
+  // Opcodes
+  static final int BINOP=0, UNOP=1, MOVE=2, LOAD=3, STORE=4, CALL=5,
+                   RETURN=6, CJUMP=7, JUMP=8, LABEL=9;
+
+  // Operand kinds
+  static final int ID=0, TEMP=1, GLOBAL=2, INT=3, FALSE=4, TRUE=5, STR=6;
+
+  //------------------------------------------------------------------------------
+  // Encoder
+  //--------
+
+  public static void write(IR.Program p, OutputStream os) throws IOException {
+    new Encoder(p).write(new DataOutputStream(new BufferedOutputStream(os)));
+  }
+
+  static class Encoder {
+    final IR.Program prog;
+    final HashMap<String, Integer> pool = new HashMap<>();
+    final List<String> poolList = new ArrayList<>();
+    HashMap<String, Integer> slots;	// current func's variable slots
+
+    Encoder(IR.Program p) { prog = p; }
+
+    int str(String s) {
+      Integer i = pool.get(s);
+      if (i == null) {
+        i = poolList.size();
+        pool.put(s, i);
+        poolList.add(s);
+      }
+      return i;
+    }
+
+    void write(DataOutputStream out) throws IOException {
+      // Encode the body first, so that the pool is complete
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      DataOutputStream body = new DataOutputStream(bytes);
+      uint(body, prog.data.length);
+      for (IR.Data d: prog.data) {
+        uint(body, str(d.name.s));
+        uint(body, d.size);
+        uint(body, d.items.length);
+        for (IR.Global g: d.items)
+          uint(body, str(g.s));
+      }
+      uint(body, prog.funcs.length);
+      for (IR.Func f: prog.funcs)
+        func(body, f);
+      body.flush();
+
+      out.write(MAGIC);
+      uint(out, poolList.size());
+      for (String s: poolList) {
+        byte[] b = s.getBytes("UTF-8");
+        uint(out, b.length);
+        out.write(b);
+      }
+      bytes.writeTo(out);
+      out.flush();
+    }
+
+    void func(DataOutputStream out, IR.Func f) throws IOException {
+      slots = new HashMap<>();
+      List<String> others = new ArrayList<>();
+      int n = 0;
+      for (IR.Id id: f.params)
+        slots.putIfAbsent(id.s, n++);
+      for (IR.Id id: f.locals)
+        slots.putIfAbsent(id.s, n++);
+      for (IR.Inst c: f.code) {
+        List<IR.Src> rands = new ArrayList<>(IRUtil.uses(c));
+        if (IRUtil.def(c) != null)
+          rands.add((IR.Src) IRUtil.def(c));
+        for (IR.Src s: rands)
+          if (s instanceof IR.Id && !slots.containsKey(((IR.Id) s).s)) {
+            slots.put(((IR.Id) s).s, n++);
+            others.add(((IR.Id) s).s);
+          }
+      }
+      uint(out, str(f.gname.s));
+      ids(out, f.params);
+      ids(out, f.locals);
+      uint(out, others.size());
+      for (String s: others)
+        uint(out, str(s));
+      uint(out, f.code.length);
+      for (IR.Inst c: f.code)
+        inst(out, c);
+    }
+
+    void ids(DataOutputStream out, IR.Id[] ids) throws IOException {
+      uint(out, ids.length);
+      for (IR.Id id: ids)
+        uint(out, str(id.s));
+    }
+
+    void inst(DataOutputStream out, IR.Inst c) throws IOException {
+      if (c instanceof IR.Binop) {
+        IR.Binop i = (IR.Binop) c;
+        out.write(BINOP);
+        out.write(bop(i.op));
+        rand(out, (IR.Src) i.dst);
+        rand(out, i.src1);
+        rand(out, i.src2);
+      } else if (c instanceof IR.Unop) {
+        IR.Unop i = (IR.Unop) c;
+        out.write(UNOP);
+        out.write(i.op.ordinal());
+        rand(out, (IR.Src) i.dst);
+        rand(out, i.src);
+      } else if (c instanceof IR.Move) {
+        IR.Move i = (IR.Move) c;
+        out.write(MOVE);
+        rand(out, (IR.Src) i.dst);
+        rand(out, i.src);
+      } else if (c instanceof IR.Load) {
+        IR.Load i = (IR.Load) c;
+        out.write(LOAD);
+        out.write(i.type.ordinal());
+        rand(out, (IR.Src) i.dst);
+        addr(out, i.addr);
+      } else if (c instanceof IR.Store) {
+        IR.Store i = (IR.Store) c;
+        out.write(STORE);
+        out.write(i.type.ordinal());
+        addr(out, i.addr);
+        rand(out, i.src);
+      } else if (c instanceof IR.Call) {
+        IR.Call i = (IR.Call) c;
+        out.write(CALL);
+        out.write((i.ind ? 1 : 0) | (i.rdst != null ? 2 : 0));
+        rand(out, (IR.Src) i.tgt);
+        uint(out, i.args.length);
+        for (IR.Src s: i.args)
+          rand(out, s);
+        if (i.rdst != null)
+          rand(out, (IR.Src) i.rdst);
+      } else if (c instanceof IR.Return) {
+        IR.Return i = (IR.Return) c;
+        out.write(RETURN);
+        out.write(i.val != null ? 1 : 0);
+        if (i.val != null)
+          rand(out, i.val);
+      } else if (c instanceof IR.CJump) {
+        IR.CJump i = (IR.CJump) c;
+        out.write(CJUMP);
+        out.write(i.op.ordinal());
+        rand(out, i.src1);
+        rand(out, i.src2);
+        uint(out, str(i.lab.name));
+      } else if (c instanceof IR.Jump) {
+        out.write(JUMP);
+        uint(out, str(((IR.Jump) c).lab.name));
+      } else if (c instanceof IR.LabelDec) {
+        out.write(LABEL);
+        uint(out, str(((IR.LabelDec) c).lab.name));
+      } else {
+        throw new IOException("Unknown Inst: " + c);
+      }
+    }
+
+    void addr(DataOutputStream out, IR.Addr a) throws IOException {
+      rand(out, a.base);
+      sint(out, a.offset);
+    }
+
+    void rand(DataOutputStream out, IR.Src s) throws IOException {
+      if (s instanceof IR.Id) {
+        out.write(ID);
+        uint(out, slots.get(((IR.Id) s).s));
+      } else if (s instanceof IR.Temp) {
+        out.write(TEMP);
+        uint(out, ((IR.Temp) s).num);
+      } else if (s instanceof IR.Global) {
+        out.write(GLOBAL);
+        uint(out, str(((IR.Global) s).s));
+      } else if (s instanceof IR.IntLit) {
+        out.write(INT);
+        sint(out, ((IR.IntLit) s).i);
+      } else if (s instanceof IR.BoolLit) {
+        out.write(((IR.BoolLit) s).b ? TRUE : FALSE);
+      } else if (s instanceof IR.StrLit) {
+        out.write(STR);
+        uint(out, str(((IR.StrLit) s).s));
+      } else {
+        throw new IOException("Unknown operand: " + s);
+      }
+    }
+  }
+
+  // Binops share one code space: AOPs first, then ROPs.
+  //
+  static int bop(IR.BOP op) {
+    if (op instanceof IR.AOP)
+      return ((IR.AOP) op).ordinal();
+    return IR.AOP.values().length + ((IR.ROP) op).ordinal();
+  }
+
+  static IR.BOP bop(int code) {
+    int n = IR.AOP.values().length;
+    return code < n ? IR.AOP.values()[code] : IR.ROP.values()[code - n];
+  }
+
+  static void uint(DataOutputStream out, int v) throws IOException {
+    while ((v & ~0x7f) != 0) {
+      out.write((v & 0x7f) | 0x80);
+      v >>>= 7;
+    }
+    out.write(v);
+  }
+
+  static void sint(DataOutputStream out, int v) throws IOException {
+    uint(out, (v << 1) ^ (v >> 31));
+  }
+
+  //------------------------------------------------------------------------------
+  // Loader
+  //-------
+  // Labels, Ids and Globals are shared within their scope (func or
+  // program), so each name is decoded into one object.
+
+  public static IR.Program read(InputStream is) throws IOException {
+    return new Decoder(new DataInputStream(new BufferedInputStream(is))).read();
+  }
+
+  public static IR.Program read(File f) throws IOException {
+    try (InputStream is = new FileInputStream(f)) {
+      return read(is);
+    }
+  }
+
+  static class Decoder {
+    final DataInputStream in;
+    String[] pool;
+    IR.Global[] globals;		// Global per pool index, made on demand
+    IR.StrLit[] strs;			// StrLit per pool index, made on demand
+    IR.Id[] slots;			// current func's variables
+    HashMap<String, IR.Label> labels;	// current func's labels
+    IR.Regs regs;			// current func's registers
+
+    Decoder(DataInputStream in) { this.in = in; }
+
+    IR.Program read() throws IOException {
+      byte[] magic = new byte[4];
+      in.readFully(magic);
+      if (!Arrays.equals(magic, MAGIC))
+        throw new IOException("Not an .irb file");
+      pool = new String[uint()];
+      for (int i = 0; i < pool.length; i++) {
+        byte[] b = new byte[uint()];
+        in.readFully(b);
+        pool[i] = new String(b, "UTF-8");
+      }
+      globals = new IR.Global[pool.length];
+      strs = new IR.StrLit[pool.length];
+      IR.Data[] data = new IR.Data[uint()];
+      for (int i = 0; i < data.length; i++) {
+        IR.Global name = global(uint());
+        int size = uint();
+        IR.Global[] items = new IR.Global[uint()];
+        for (int k = 0; k < items.length; k++)
+          items[k] = global(uint());
+        data[i] = new IR.Data(name, size, items);
+      }
+      IR.Func[] funcs = new IR.Func[uint()];
+      for (int i = 0; i < funcs.length; i++)
+        funcs[i] = func();
+      return new IR.Program(data, funcs);
+    }
+
+    IR.Func func() throws IOException {
+      regs = new IR.Regs();
+      IR.Global name = global(uint());
+      IR.Id[] params = ids(uint());
+      IR.Id[] locals = ids(uint());
+      IR.Id[] others = ids(uint());
+      slots = new IR.Id[params.length + locals.length + others.length];
+      System.arraycopy(params, 0, slots, 0, params.length);
+      System.arraycopy(locals, 0, slots, params.length, locals.length);
+      System.arraycopy(others, 0, slots, params.length + locals.length,
+                       others.length);
+      labels = new HashMap<>();
+      IR.Inst[] code = new IR.Inst[uint()];
+      for (int i = 0; i < code.length; i++)
+        code[i] = inst();
+      return new IR.Func(name, params, locals, code, regs);
+    }
+
+    IR.Id[] ids(int n) throws IOException {
+      IR.Id[] ids = new IR.Id[n];
+      for (int i = 0; i < n; i++)
+        ids[i] = regs.id(pool[uint()]);
+      return ids;
+    }
+
+    IR.Inst inst() throws IOException {
+      int op = in.readUnsignedByte();
+      switch (op) {
+      case BINOP: {
+        IR.BOP bop = bop(in.readUnsignedByte());
+        IR.Dest d = dest();
+        IR.Src s1 = rand();
+        return new IR.Binop(bop, d, s1, rand());
+      }
+      case UNOP: {
+        IR.UOP uop = IR.UOP.values()[in.readUnsignedByte()];
+        IR.Dest d = dest();
+        return new IR.Unop(uop, d, rand());
+      }
+      case MOVE: {
+        IR.Dest d = dest();
+        return new IR.Move(d, rand());
+      }
+      case LOAD: {
+        IR.Type t = IR.Type.values()[in.readUnsignedByte()];
+        IR.Dest d = dest();
+        return new IR.Load(t, d, addr());
+      }
+      case STORE: {
+        IR.Type t = IR.Type.values()[in.readUnsignedByte()];
+        IR.Addr a = addr();
+        return new IR.Store(t, a, rand());
+      }
+      case CALL: {
+        int flags = in.readUnsignedByte();
+        IR.CallTgt tgt = (IR.CallTgt) rand();
+        IR.Src[] args = new IR.Src[uint()];
+        for (int k = 0; k < args.length; k++)
+          args[k] = rand();
+        IR.Dest rdst = (flags & 2) != 0 ? dest() : null;
+        return new IR.Call(tgt, (flags & 1) != 0, args, rdst);
+      }
+      case RETURN:
+        return in.readUnsignedByte() != 0 ? new IR.Return(rand())
+                                          : new IR.Return();
+      case CJUMP: {
+        IR.ROP rop = IR.ROP.values()[in.readUnsignedByte()];
+        IR.Src s1 = rand();
+        IR.Src s2 = rand();
+        return new IR.CJump(rop, s1, s2, label(uint()));
+      }
+      case JUMP:
+        return new IR.Jump(label(uint()));
+      case LABEL:
+        return new IR.LabelDec(label(uint()));
+      }
+      throw new IOException("Bad opcode " + op);
+    }
+
+    IR.Addr addr() throws IOException {
+      IR.Src base = rand();
+      return new IR.Addr(base, sint());
+    }
+
+    IR.Dest dest() throws IOException {
+      IR.Src s = rand();
+      if (!(s instanceof IR.Dest))
+        throw new IOException("Bad dest operand " + s);
+      return (IR.Dest) s;
+    }
+
+    IR.Src rand() throws IOException {
+      int kind = in.readUnsignedByte();
+      switch (kind) {
+      case ID:     return slots[uint()];
+      case TEMP:   return regs.temp(uint());
+      case GLOBAL: return global(uint());
+      case INT:    return IR.IntLit.of(sint());
+      case FALSE:  return IR.FALSE;
+      case TRUE:   return IR.TRUE;
+      case STR: {
+        int i = uint();
+        if (strs[i] == null)
+          strs[i] = new IR.StrLit(pool[i]);
+        return strs[i];
+      }
+      }
+      throw new IOException("Bad operand kind " + kind);
+    }
+
+    IR.Global global(int i) {
+      if (globals[i] == null)
+        globals[i] = IR.Global.of(pool[i]);
+      return globals[i];
+    }
+
+    IR.Label label(int i) {
+      IR.Label l = labels.get(pool[i]);
+      if (l == null) {
+        l = new IR.Label(pool[i]);
+        labels.put(pool[i], l);
+      }
+      return l;
+    }
+
+    int uint() throws IOException {
+      int v = 0;
+      for (int shift = 0; ; shift += 7) {
+        int b = in.readUnsignedByte();
+        v |= (b & 0x7f) << shift;
+        if ((b & 0x80) == 0)
+          return v;
+      }
+    }
+
+    int sint() throws IOException {
+      int v = uint();
+      return (v >>> 1) ^ -(v & 1);
+    }
+  }
+
+  //------------------------------------------------------------------------------
+  // Usage: java ir.IRBinary file.irb  -- print an .irb file as IR text
+  //
+  public static void main(String[] args) throws Exception {
+    if (args.length == 1) {
+      IRWriter.write(read(new File(args[0])), System.out);
+    } else {
+      System.out.println("You must provide an input file name.");
+    }
+  }
+
+}
@@ -0,0 +1,574 @@
+// CS322 HW2
+//
+
+// Hand-written parser for the IR text format (as printed by IR.toString
+// and IRWriter).
+//
+// The input is scanned in place as bytes (a memory-mapped file, or a
+// wrapped byte array), so tokens are never materialized: keywords and
+// operators are matched against the buffer, numbers are accumulated
+// directly, and names are looked up in byte-keyed tables. A String is
+// created only the first time a name is seen in its scope (function
+// scope for variables, temps and labels; program scope for globals and
+// string literals), and operands are interned through IR's factories
+// (IR.Id.of, IR.Temp.of, ...), so repeated operands share one object.
+//
+// Operand conventions: names starting with '_' are Globals, "t<digits>"
+// are Temps, "true"/"false" are BoolLits, and other names are Ids.
+//
+package ir;
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+public class IRReader {
+
+  public static IR.Program read(File f) throws IOException, IR.IRException {
+    try (FileChannel ch = FileChannel.open(f.toPath(), StandardOpenOption.READ)) {
+      ByteBuffer buf = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+      return new IRReader(buf).program();
+    }
+  }
+
+  public static IR.Program read(String text) throws IR.IRException {
+    return new IRReader(ByteBuffer.wrap(text.getBytes(StandardCharsets.UTF_8)))
+             .program();
+  }
+
+  //------------------------------------------------------------------------------
+  // Scanner State
+  //--------------
+
+  final ByteBuffer buf;
+  final int end;
+  int pos = 0;
+  int line = 1;
+
+  final NameTable globals = new NameTable();	// program scope
+  final NameTable strs = new NameTable();
+  NameTable ids, labels;			// function scope
+  IR.Regs regs;
+
+  IRReader(ByteBuffer buf) {
+    this.buf = buf;
+    this.end = buf.limit();
+  }
+
+  int peek() { return pos < end ? buf.get(pos) & 0xff : -1; }
+
+  int peek(int k) { return pos + k < end ? buf.get(pos + k) & 0xff : -1; }
+
+  IR.IRException error(String msg) {
+    return new IR.IRException("IR line " + line + ": " + msg);
+  }
+
+  // Skip spaces and tabs (not newlines).
+  //
+  void skipSpace() {
+    int c;
+    while ((c = peek()) == ' ' || c == '\t' || c == '\r')
+      pos++;
+  }
+
+  // Skip whitespace, blank lines and '#' comment lines.
+  //
+  void skipLines() {
+    while (pos < end) {
+      int c = peek();
+      if (c == '\n') {
+        line++;
+        pos++;
+      } else if (c == ' ' || c == '\t' || c == '\r') {
+        pos++;
+      } else if (c == '#') {
+        while (pos < end && peek() != '\n')
+          pos++;
+      } else {
+        return;
+      }
+    }
+  }
+
+  void expectEol() throws IR.IRException {
+    skipSpace();
+    if (pos < end && peek() != '\n')
+      throw error("end of line expected");
+  }
+
+  void expect(char ch) throws IR.IRException {
+    skipSpace();
+    if (peek() != ch)
+      throw error("'" + ch + "' expected");
+    pos++;
+  }
+
+  // If the input at pos is the given word (not followed by a name char),
+  // consume it and return true.
+  //
+  boolean word(String w) {
+    int n = w.length();
+    for (int k = 0; k < n; k++)
+      if (peek(k) != w.charAt(k))
+        return false;
+    if (isNameChar(peek(n)))
+      return false;
+    pos += n;
+    return true;
+  }
+
+  boolean match(String s) {
+    int n = s.length();
+    for (int k = 0; k < n; k++)
+      if (peek(k) != s.charAt(k))
+        return false;
+    pos += n;
+    return true;
+  }
+
+  static boolean isNameStart(int c) {
+    return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || c == '_';
+  }
+
+  static boolean isNameChar(int c) {
+    return isNameStart(c) || (c >= '0' && c <= '9');
+  }
+
+  static boolean isDigit(int c) { return c >= '0' && c <= '9'; }
+
+  // Scan a name; return its end position (pos is left at its start).
+  //
+  int nameEnd() {
+    int e = pos;
+    while (e < end && isNameChar(buf.get(e) & 0xff))
+      e++;
+    return e;
+  }
+
+  int integer() throws IR.IRException {
+    skipSpace();
+    boolean neg = false;
+    if (peek() == '-') {
+      neg = true;
+      pos++;
+    }
+    if (!isDigit(peek()))
+      throw error("number expected");
+    long v = 0;
+    while (isDigit(peek()))
+      v = v * 10 + (buf.get(pos++) - '0');
+    return (int) (neg ? -v : v);
+  }
+
+  //------------------------------------------------------------------------------
+  // Program Structure
+  //------------------
+
+  IR.Program program() throws IR.IRException {
+    List<IR.Data> data = new ArrayList<>();
+    List<IR.Func> funcs = new ArrayList<>();
+    for (skipLines(); pos < end; skipLines()) {
+      if (word("data"))
+        data.add(data());
+      else
+        funcs.add(func());
+    }
+    return new IR.Program(data, funcs);
+  }
+
+  // data <name> (sz=<n>): <name>, ...
+  //
+  IR.Data data() throws IR.IRException {
+    skipSpace();
+    IR.Global name = global();
+    expect('(');
+    if (!match("sz="))
+      throw error("'sz=' expected");
+    int size = integer();
+    expect(')');
+    expect(':');
+    List<IR.Global> items = new ArrayList<>();
+    skipSpace();
+    while (pos < end && peek() != '\n') {
+      items.add(global());
+      skipSpace();
+      if (peek() == ',') {
+        pos++;
+        skipSpace();
+      }
+    }
+    return new IR.Data(name, size, items);
+  }
+
+  // <name> (<params>)
+  // [(<locals>)]
+  // {
+  // <insts>
+  // }
+  //
+  IR.Func func() throws IR.IRException {
+    ids = new NameTable();
+    labels = new NameTable();
+    regs = new IR.Regs();
+    IR.Global name = global();
+    IR.Id[] params = idList();
+    expectEol();
+    skipLines();
+    IR.Id[] locals = peek() == '(' ? idList() : new IR.Id[0];
+    skipLines();
+    if (peek() != '{')
+      throw error("'{' expected");
+    pos++;
+    expectEol();
+    List<IR.Inst> code = new ArrayList<>();
+    for (skipLines(); peek() != '}'; skipLines()) {
+      if (pos >= end)
+        throw error("'}' expected");
+      code.add(inst());
+      expectEol();
+    }
+    pos++;
+    return new IR.Func(name, params, locals, code.toArray(new IR.Inst[0]),
+                       regs);
+  }
+
+  IR.Id[] idList() throws IR.IRException {
+    expect('(');
+    List<IR.Id> l = new ArrayList<>();
+    skipSpace();
+    while (peek() != ')') {
+      IR.Src s = operand();
+      if (!(s instanceof IR.Id))
+        throw error("variable expected");
+      l.add((IR.Id) s);
+      skipSpace();
+      if (peek() == ',')
+        pos++;
+      skipSpace();
+      if (pos >= end)
+        throw error("')' expected");
+    }
+    pos++;
+    return l.toArray(new IR.Id[0]);
+  }
+
+  //------------------------------------------------------------------------------
+  // Instructions
+  //-------------
+
+  IR.Inst inst() throws IR.IRException {
+    skipSpace();
+    int c = peek();
+    if (c == '[' || isDigit(c) || c == '-') {	// store
+      IR.Addr addr = addr();
+      IR.Type t = type();
+      expect('=');
+      return new IR.Store(t, addr, src());
+    }
+    if (!isNameStart(c))
+      throw error("instruction expected");
+    int e = nameEnd();
+    if (e < end && buf.get(e) == ':') {		// label
+      IR.Label l = label();
+      pos++;
+      return new IR.LabelDec(l);
+    }
+    if (word("return")) {
+      skipSpace();
+      if (pos >= end || peek() == '\n')
+        return new IR.Return();
+      return new IR.Return(src());
+    }
+    if (word("goto")) {
+      skipSpace();
+      return new IR.Jump(label());
+    }
+    if (word("if")) {
+      IR.Src s1 = src();
+      IR.ROP op = rop();
+      if (op == null)
+        throw error("relational operator expected");
+      IR.Src s2 = src();
+      skipSpace();
+      if (!word("goto"))
+        throw error("'goto' expected");
+      skipSpace();
+      return new IR.CJump(op, s1, s2, label());
+    }
+    if (word("call"))
+      return call(null);
+
+    IR.Dest dst = dest();
+    expect('=');
+    skipSpace();
+    c = peek();
+    if (word("call"))
+      return call(dst);
+    if (c == '[' || isLoad()) {
+      IR.Addr addr = addr();
+      return new IR.Load(type(), dst, addr);
+    }
+    if (c == '!' || (c == '-' && !isDigit(peek(1)))) {
+      pos++;
+      return new IR.Unop(c == '!' ? IR.UOP.NOT : IR.UOP.NEG, dst, src());
+    }
+    IR.Src s1 = src();
+    skipSpace();
+    if (pos >= end || peek() == '\n')
+      return new IR.Move(dst, s1);
+    IR.BOP op = bop();
+    if (op == null)
+      throw error("operator expected");
+    return new IR.Binop(op, dst, s1, src());
+  }
+
+  // Return true if the input at pos is an offset followed by '['.
+  //
+  boolean isLoad() {
+    int k = peek() == '-' ? 1 : 0;
+    if (!isDigit(peek(k)))
+      return false;
+    while (isDigit(peek(k)))
+      k++;
+    return peek(k) == '[';
+  }
+
+  IR.Call call(IR.Dest rdst) throws IR.IRException {
+    skipSpace();
+    boolean ind = false;
+    if (peek() == '*') {
+      ind = true;
+      pos++;
+      skipSpace();
+    }
+    IR.Src tgt = operand();
+    if (!(tgt instanceof IR.CallTgt))
+      throw error("call target expected");
+    expect('(');
+    List<IR.Src> args = new ArrayList<>();
+    skipSpace();
+    while (peek() != ')') {
+      args.add(src());
+      skipSpace();
+      if (peek() == ',')
+        pos++;
+      else if (peek() != ')')
+        throw error("',' or ')' expected");
+    }
+    pos++;
+    return new IR.Call((IR.CallTgt) tgt, ind, args.toArray(new IR.Src[0]), rdst);
+  }
+
+  IR.Addr addr() throws IR.IRException {
+    skipSpace();
+    int offset = peek() == '[' ? 0 : integer();
+    expect('[');
+    IR.Src base = src();
+    expect(']');
+    return new IR.Addr(base, offset);
+  }
+
+  IR.Type type() throws IR.IRException {
+    if (peek() != ':')
+      throw error("type expected");
+    switch (peek(1)) {
+    case 'I': pos += 2; return IR.Type.INT;
+    case 'B': pos += 2; return IR.Type.BOOL;
+    case 'P': pos += 2; return IR.Type.PTR;
+    }
+    throw error("type expected");
+  }
+
+  IR.BOP bop() {
+    IR.ROP r = rop();
+    if (r != null)
+      return r;
+    skipSpace();
+    if (match("&&")) return IR.AOP.AND;
+    if (match("||")) return IR.AOP.OR;
+    if (match("+"))  return IR.AOP.ADD;
+    if (match("-"))  return IR.AOP.SUB;
+    if (match("*"))  return IR.AOP.MUL;
+    if (match("/"))  return IR.AOP.DIV;
+    return null;
+  }
+
+  IR.ROP rop() {
+    skipSpace();
+    if (match("==")) return IR.ROP.EQ;
+    if (match("!=")) return IR.ROP.NE;
+    if (match("<=")) return IR.ROP.LE;
+    if (match(">=")) return IR.ROP.GE;
+    if (match("<"))  return IR.ROP.LT;
+    if (match(">"))  return IR.ROP.GT;
+    return null;
+  }
+
+  //------------------------------------------------------------------------------
+  // Operands
+  //---------
+
+  IR.Src src() throws IR.IRException {
+    skipSpace();
+    return operand();
+  }
+
+  IR.Dest dest() throws IR.IRException {
+    IR.Src s = src();
+    if (!(s instanceof IR.Dest))
+      throw error("variable or temp expected");
+    return (IR.Dest) s;
+  }
+
+  IR.Src operand() throws IR.IRException {
+    int c = peek();
+    if (c == '"') {
+      int s = ++pos;
+      while (pos < end && peek() != '"' && peek() != '\n')
+        pos++;
+      if (peek() != '"')
+        throw error("unterminated string");
+      IR.StrLit lit = (IR.StrLit) strs.get(buf, s, pos);
+      if (lit == null)
+        lit = (IR.StrLit) strs.put(buf, s, pos, new IR.StrLit(string(s, pos)));
+      pos++;
+      return lit;
+    }
+    if (isDigit(c) || c == '-')
+      return IR.IntLit.of(integer());
+    if (!isNameStart(c))
+      throw error("operand expected");
+    if (word("true"))
+      return IR.TRUE;
+    if (word("false"))
+      return IR.FALSE;
+    if (c == '_')
+      return global();
+    int e = nameEnd();
+    if (c == 't' && e > pos + 1) {		// t<digits>?
+      int num = 0, k = pos + 1;
+      while (k < e && isDigit(buf.get(k) & 0xff))
+        num = num * 10 + (buf.get(k++) - '0');
+      if (k == e) {
+        pos = e;
+        return regs.temp(num);
+      }
+    }
+    IR.Id id = (IR.Id) ids.get(buf, pos, e);
+    if (id == null)
+      id = (IR.Id) ids.put(buf, pos, e, regs.id(string(pos, e)));
+    pos = e;
+    return id;
+  }
+
+  IR.Global global() throws IR.IRException {
+    skipSpace();
+    if (!isNameStart(peek()))
+      throw error("name expected");
+    int e = nameEnd();
+    IR.Global g = (IR.Global) globals.get(buf, pos, e);
+    if (g == null)
+      g = (IR.Global) globals.put(buf, pos, e, IR.Global.of(string(pos, e)));
+    pos = e;
+    return g;
+  }
+
+  IR.Label label() throws IR.IRException {
+    if (!isNameStart(peek()))
+      throw error("label expected");
+    int e = nameEnd();
+    IR.Label l = (IR.Label) labels.get(buf, pos, e);
+    if (l == null)
+      l = (IR.Label) labels.put(buf, pos, e, new IR.Label(string(pos, e)));
+    pos = e;
+    return l;
+  }
+
+  String string(int s, int e) {
+    byte[] b = new byte[e - s];
+    for (int k = s; k < e; k++)
+      b[k - s] = buf.get(k);
+    return new String(b, StandardCharsets.UTF_8);
+  }
+
+  // NameTable
+  // ---------
+  // Open-addressing map from a byte range of the input to an object, so
+  // that a name can be looked up without building a String for it.
+  //
+  static class NameTable {
+    byte[][] keys = new byte[64][];
+    Object[] vals = new Object[64];
+    int size = 0;
+
+    static int hash(ByteBuffer buf, int s, int e) {
+      int h = 0;
+      for (int k = s; k < e; k++)
+        h = 31 * h + buf.get(k);
+      return h ^ (h >>> 16);
+    }
+
+    static boolean same(byte[] key, ByteBuffer buf, int s, int e) {
+      if (key.length != e - s)
+        return false;
+      for (int k = 0; k < key.length; k++)
+        if (key[k] != buf.get(s + k))
+          return false;
+      return true;
+    }
+
+    Object get(ByteBuffer buf, int s, int e) {
+      int mask = keys.length - 1;
+      for (int i = hash(buf, s, e) & mask; keys[i] != null; i = (i + 1) & mask)
+        if (same(keys[i], buf, s, e))
+          return vals[i];
+      return null;
+    }
+
+    Object put(ByteBuffer buf, int s, int e, Object val) {
+      if (2 * (size + 1) > keys.length)
+        grow();
+      byte[] key = new byte[e - s];
+      for (int k = 0; k < key.length; k++)
+        key[k] = buf.get(s + k);
+      insert(key, val);
+      return val;
+    }
+
+    void insert(byte[] key, Object val) {
+      int mask = keys.length - 1;
+      int i = hash(ByteBuffer.wrap(key), 0, key.length) & mask;
+      while (keys[i] != null)
+        i = (i + 1) & mask;
+      keys[i] = key;
+      vals[i] = val;
+      size++;
+    }
+
+    void grow() {
+      byte[][] oldKeys = keys;
+      Object[] oldVals = vals;
+      keys = new byte[oldKeys.length * 2][];
+      vals = new Object[oldKeys.length * 2];
+      size = 0;
+      for (int i = 0; i < oldKeys.length; i++)
+        if (oldKeys[i] != null)
+          insert(oldKeys[i], oldVals[i]);
+    }
+  }
+
+  //------------------------------------------------------------------------------
+  // Usage: java ir.IRReader file.ir ...  -- parse and reprint IR files
+  //
+  public static void main(String[] args) throws Exception {
+    if (args.length == 0) {
+      System.out.println("You must provide an input file name.");
+      return;
+    }
+    for (String a: args)
+      IRWriter.write(read(new File(a)), System.out);
+  }
+
+}
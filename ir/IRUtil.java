@@ -0,0 +1,270 @@
+// CS322 HW2
+//
+
+// Helper routines shared by the IR passes.
+//
+package ir;
+import java.util.*;
+
+public class IRUtil {
+
+  // Subst
+  // -----
+  // Operand and label mapping for rewriting an instruction. The default
+  // mapping is the identity; passes override what they need.
+  //
+  public static class Subst {
+    public IR.Src src(IR.Src s) { return s; }
+    public IR.Dest dest(IR.Dest d) { return d; }
+    public IR.Label label(IR.Label l) { return l; }
+  }
+
+  // Rebuild an instruction with its operands and labels mapped by m.
+  //
+  public static IR.Inst subst(IR.Inst c, Subst m) {
+    if (c instanceof IR.Binop) {
+      IR.Binop i = (IR.Binop) c;
+      return new IR.Binop(i.op, m.dest(i.dst), m.src(i.src1), m.src(i.src2));
+    }
+    if (c instanceof IR.Unop) {
+      IR.Unop i = (IR.Unop) c;
+      return new IR.Unop(i.op, m.dest(i.dst), m.src(i.src));
+    }
+    if (c instanceof IR.Move) {
+      IR.Move i = (IR.Move) c;
+      return new IR.Move(m.dest(i.dst), m.src(i.src));
+    }
+    if (c instanceof IR.Load) {
+      IR.Load i = (IR.Load) c;
+      return new IR.Load(i.type, m.dest(i.dst), subst(i.addr, m));
+    }
+    if (c instanceof IR.Store) {
+      IR.Store i = (IR.Store) c;
+      return new IR.Store(i.type, subst(i.addr, m), m.src(i.src));
+    }
+    if (c instanceof IR.Call) {
+      IR.Call i = (IR.Call) c;
+      IR.Src[] args = new IR.Src[i.args.length];
+      for (int k = 0; k < args.length; k++)
+        args[k] = m.src(i.args[k]);
+      IR.CallTgt tgt = i.ind ? (IR.CallTgt) m.src((IR.Src) i.tgt) : i.tgt;
+      return new IR.Call(tgt, i.ind, args,
+                         i.rdst == null ? null : m.dest(i.rdst));
+    }
+    if (c instanceof IR.Return) {
+      IR.Return i = (IR.Return) c;
+      return i.val == null ? new IR.Return() : new IR.Return(m.src(i.val));
+    }
+    if (c instanceof IR.CJump) {
+      IR.CJump i = (IR.CJump) c;
+      return new IR.CJump(i.op, m.src(i.src1), m.src(i.src2), m.label(i.lab));
+    }
+    if (c instanceof IR.Jump)
+      return new IR.Jump(m.label(((IR.Jump) c).lab));
+    if (c instanceof IR.LabelDec)
+      return new IR.LabelDec(m.label(((IR.LabelDec) c).lab));
+    if (c instanceof IR.Phi) {
+      IR.Phi i = (IR.Phi) c;
+      IR.Label[] preds = new IR.Label[i.preds.length];
+      IR.Src[] args = new IR.Src[i.args.length];
+      for (int k = 0; k < args.length; k++) {
+        preds[k] = m.label(i.preds[k]);
+        args[k] = m.src(i.args[k]);
+      }
+      return new IR.Phi(m.dest(i.dst), preds, args);
+    }
+    throw new IllegalArgumentException("Unknown Inst: " + c);
+  }
+
+  static IR.Addr subst(IR.Addr a, Subst m) {
+    return new IR.Addr(m.src(a.base), a.offset);
+  }
+
+  // Return the register an instruction writes (null if none).
+  //
+  public static IR.Dest def(IR.Inst c) { return c.accept(DEF); }
+
+  static final IR.TypedInstVisitor<IR.Dest> DEF =
+    new IR.TypedInstVisitor<IR.Dest>() {
+    public IR.Dest visit(IR.Binop c)    { return c.dst; }
+    public IR.Dest visit(IR.Unop c)     { return c.dst; }
+    public IR.Dest visit(IR.Move c)     { return c.dst; }
+    public IR.Dest visit(IR.Load c)     { return c.dst; }
+    public IR.Dest visit(IR.Store c)    { return null; }
+    public IR.Dest visit(IR.Call c)     { return c.rdst; }
+    public IR.Dest visit(IR.Return c)   { return null; }
+    public IR.Dest visit(IR.CJump c)    { return null; }
+    public IR.Dest visit(IR.Jump c)     { return null; }
+    public IR.Dest visit(IR.LabelDec c) { return null; }
+    public IR.Dest visit(IR.Phi c)      { return c.dst; }
+  };
+
+  // Return the operands an instruction reads, including address bases
+  // and the target of an indirect call. The list is read-only.
+  //
+  public static List<IR.Src> uses(IR.Inst c) { return c.accept(USES); }
+
+  static final IR.TypedInstVisitor<List<IR.Src>> USES =
+    new IR.TypedInstVisitor<List<IR.Src>>() {
+    public List<IR.Src> visit(IR.Binop c) {
+      return Arrays.asList(c.src1, c.src2);
+    }
+    public List<IR.Src> visit(IR.Unop c) {
+      return Collections.singletonList(c.src);
+    }
+    public List<IR.Src> visit(IR.Move c) {
+      return Collections.singletonList(c.src);
+    }
+    public List<IR.Src> visit(IR.Load c) {
+      return Collections.singletonList(c.addr.base);
+    }
+    public List<IR.Src> visit(IR.Store c) {
+      return Arrays.asList(c.addr.base, c.src);
+    }
+    public List<IR.Src> visit(IR.Call c) {
+      if (!c.ind)
+        return Arrays.asList(c.args);
+      List<IR.Src> l = new ArrayList<>(c.args.length + 1);
+      l.add((IR.Src) c.tgt);
+      l.addAll(Arrays.asList(c.args));
+      return l;
+    }
+    public List<IR.Src> visit(IR.Return c) {
+      return c.val == null ? Collections.emptyList()
+                           : Collections.singletonList(c.val);
+    }
+    public List<IR.Src> visit(IR.CJump c) {
+      return Arrays.asList(c.src1, c.src2);
+    }
+    public List<IR.Src> visit(IR.Jump c)     { return Collections.emptyList(); }
+    public List<IR.Src> visit(IR.LabelDec c) { return Collections.emptyList(); }
+    public List<IR.Src> visit(IR.Phi c)      { return Arrays.asList(c.args); }
+  };
+
+  // Constant folding ---
+  //
+  // Return the literal value of op applied to literals a and b, or null
+  // if it cannot be computed at compile time (an operand is not an int
+  // or bool literal, the types do not fit, or division by zero).
+  //
+  public static IR.Src fold(IR.BOP op, IR.Src a, IR.Src b) {
+    if (a instanceof IR.IntLit && b instanceof IR.IntLit) {
+      int x = ((IR.IntLit) a).i, y = ((IR.IntLit) b).i;
+      if (op == IR.AOP.ADD) return IR.IntLit.of(x + y);
+      if (op == IR.AOP.SUB) return IR.IntLit.of(x - y);
+      if (op == IR.AOP.MUL) return IR.IntLit.of(x * y);
+      if (op == IR.AOP.DIV) return y == 0 ? null : IR.IntLit.of(x / y);
+      if (op == IR.ROP.EQ)  return bool(x == y);
+      if (op == IR.ROP.NE)  return bool(x != y);
+      if (op == IR.ROP.LT)  return bool(x < y);
+      if (op == IR.ROP.LE)  return bool(x <= y);
+      if (op == IR.ROP.GT)  return bool(x > y);
+      if (op == IR.ROP.GE)  return bool(x >= y);
+    } else if (a instanceof IR.BoolLit && b instanceof IR.BoolLit) {
+      boolean x = ((IR.BoolLit) a).b, y = ((IR.BoolLit) b).b;
+      if (op == IR.AOP.AND) return bool(x && y);
+      if (op == IR.AOP.OR)  return bool(x || y);
+      if (op == IR.ROP.EQ)  return bool(x == y);
+      if (op == IR.ROP.NE)  return bool(x != y);
+    }
+    return null;
+  }
+
+  public static IR.Src fold(IR.UOP op, IR.Src a) {
+    if (op == IR.UOP.NEG && a instanceof IR.IntLit)
+      return IR.IntLit.of(-((IR.IntLit) a).i);
+    if (op == IR.UOP.NOT && a instanceof IR.BoolLit)
+      return bool(!((IR.BoolLit) a).b);
+    return null;
+  }
+
+  public static IR.BoolLit bool(boolean b) { return b ? IR.TRUE : IR.FALSE; }
+
+  // IRInterp's parser has no negative int literals: "x = -5" reads back
+  // as a NEG of 5, which is fine, but "-5" cannot be an operand anywhere
+  // else. Return true if s may be used as an operand (other than as the
+  // source of a Move or the arg of a phi, which becomes one).
+  //
+  public static boolean operandOK(IR.Src s) {
+    return !(s instanceof IR.IntLit && ((IR.IntLit) s).i < 0);
+  }
+
+  // Return true if a and b are the same int or bool literal.
+  //
+  public static boolean sameLit(IR.Src a, IR.Src b) {
+    if (a instanceof IR.IntLit && b instanceof IR.IntLit)
+      return ((IR.IntLit) a).i == ((IR.IntLit) b).i;
+    if (a instanceof IR.BoolLit && b instanceof IR.BoolLit)
+      return ((IR.BoolLit) a).b == ((IR.BoolLit) b).b;
+    return false;
+  }
+
+  // IRInterp returns a branch target's index from a jump, and index 0
+  // collides with its "continue" code, so a branch to a label at the very
+  // start of a function falls through instead. Passes that may leave a
+  // LabelDec first call this to prepend a jump to it.
+  //
+  public static void guardEntry(List<IR.Inst> code) {
+    if (!code.isEmpty() && code.get(0) instanceof IR.LabelDec)
+      code.add(0, new IR.Jump(((IR.LabelDec) code.get(0)).lab));
+  }
+
+  // Return true if control can pass from c to the inst after it. Falling
+  // off the end of a function returns, so a pass that appends blocks
+  // after the last inst must first end the code with a "return" when the
+  // last inst can fall through (see endWithReturn).
+  //
+  public static boolean fallsThrough(IR.Inst c) {
+    return !(c instanceof IR.Jump || c instanceof IR.Return);
+  }
+
+  // Append a "return" to code if control can run off its end.
+  //
+  public static void endWithReturn(List<IR.Inst> code) {
+    if (!code.isEmpty() && fallsThrough(code.get(code.size() - 1)))
+      code.add(new IR.Return());
+  }
+
+  // Return a new label whose name is not in the used set, and add it to
+  // the set. (IR.Label's counter alone can collide with the labels of
+  // IR that was read in rather than generated.)
+  //
+  public static IR.Label freshLabel(Set<String> used) {
+    IR.Label l = new IR.Label();
+    while (used.contains(l.name))
+      l = new IR.Label();
+    used.add(l.name);
+    return l;
+  }
+
+  // Return the names of the labels declared in a code array.
+  //
+  public static Set<String> labelNames(IR.Inst[] code) {
+    Set<String> used = new HashSet<>();
+    for (IR.Inst c: code)
+      if (c instanceof IR.LabelDec)
+        used.add(((IR.LabelDec) c).lab.name);
+    return used;
+  }
+
+  // Return the locals that some instruction of code reads or writes, in
+  // their original order.
+  //
+  public static List<IR.Id> mentioned(List<IR.Id> locals, List<IR.Inst> code) {
+    Set<IR.Reg> regs = new HashSet<>();
+    for (IR.Inst c: code) {
+      IR.Dest d = def(c);
+      if (d != null)
+        regs.add((IR.Reg) d);
+      for (IR.Src s: uses(c))
+        if (s instanceof IR.Reg)
+          regs.add((IR.Reg) s);
+    }
+    List<IR.Id> out = new ArrayList<>();
+    for (IR.Id id: locals)
+      if (regs.contains(id))
+        out.add(id);
+    return out;
+  }
+
+}
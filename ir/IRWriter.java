@@ -0,0 +1,240 @@
+// CS322 HW2
+//
+
+// Streaming IR printer.
+//
+// Writes a Program/Func/Inst straight to a Writer in the same text format
+// as the toString methods in IR, in time linear in the output size. Line
+// numbering (for indexed output) is done only here: an Inst's toString
+// is its unnumbered text.
+//
+package ir;
+import java.io.*;
+
+public class IRWriter {
+
+  final Writer out;
+  final boolean indexed;	// prefix insts with their index
+  int linenum;			// index of the next inst
+
+  public IRWriter(Writer out, boolean indexed) {
+    this.out = out;
+    this.indexed = indexed;
+  }
+
+  public IRWriter(Writer out) { this(out, false); }
+
+  // Write a program to a byte stream through a buffer.
+  //
+  public static void write(IR.Program p, OutputStream os) throws IOException {
+    Writer w = new BufferedWriter(new OutputStreamWriter(os), 1 << 16);
+    new IRWriter(w).write(p);
+    w.flush();
+  }
+
+  // Return a program's or function's text (used by the toString methods).
+  //
+  public static String toString(IR.Program p, boolean indexed) {
+    StringWriter sw = new StringWriter();
+    try {
+      new IRWriter(sw, indexed).write(p);
+    } catch (IOException e) {	// cannot happen with a StringWriter
+      throw new UncheckedIOException(e);
+    }
+    return sw.toString();
+  }
+
+  public static String toString(IR.Func f, boolean indexed) {
+    StringWriter sw = new StringWriter();
+    try {
+      new IRWriter(sw, indexed).write(f);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    return sw.toString();
+  }
+
+  public void flush() throws IOException { out.flush(); }
+
+  // Program ---
+  //
+  public void write(IR.Program p) throws IOException {
+    out.write("# IR Program\n");
+    if (p.data != null && p.data.length > 0)
+      out.write('\n');
+    for (IR.Data d: p.data)
+      write(d);
+    for (IR.Func f: p.funcs) {
+      out.write('\n');
+      write(f);
+    }
+  }
+
+  // Data ---
+  //
+  public void write(IR.Data d) throws IOException {
+    out.write("data ");
+    out.write(d.name.s);
+    out.write(" (sz=");
+    out.write(Integer.toString(d.size));
+    out.write("): ");
+    for (int i = 0; i < d.items.length; i++) {
+      if (i > 0)
+	out.write(", ");
+      out.write(d.items[i].s);
+    }
+    out.write('\n');
+  }
+
+  // Func ---
+  //
+  public void write(IR.Func f) throws IOException {
+    out.write(f.gname.s);
+    out.write(' ');
+    write(f.params);
+    out.write('\n');
+    if (f.locals.length > 0) {
+      write(f.locals);
+      out.write('\n');
+    }
+    out.write("{\n");
+    linenum = 0;
+    for (IR.Inst c: f.code)
+      write(c);
+    out.write("}\n");
+  }
+
+  void write(IR.Id[] vars) throws IOException {
+    out.write('(');
+    for (int i = 0; i < vars.length; i++) {
+      if (i > 0)
+	out.write(", ");
+      out.write(vars[i].s);
+    }
+    out.write(')');
+  }
+
+  // Inst ---
+  //
+  public void write(IR.Inst c) throws IOException {
+    if (indexed) {
+      int n = linenum++;
+      out.write(Integer.toString(n));
+      out.write(n < 10 ? ".  " : ". ");
+    }
+    if (c instanceof IR.Binop) {
+      IR.Binop i = (IR.Binop) c;
+      assign(i.dst);
+      write(i.src1);
+      out.write(' ');
+      out.write(i.op.toString());
+      out.write(' ');
+      write(i.src2);
+    } else if (c instanceof IR.Unop) {
+      IR.Unop i = (IR.Unop) c;
+      assign(i.dst);
+      out.write(i.op.toString());
+      write(i.src);
+    } else if (c instanceof IR.Move) {
+      IR.Move i = (IR.Move) c;
+      assign(i.dst);
+      write(i.src);
+    } else if (c instanceof IR.Load) {
+      IR.Load i = (IR.Load) c;
+      assign(i.dst);
+      write(i.addr);
+      out.write(i.type.toString());
+    } else if (c instanceof IR.Store) {
+      IR.Store i = (IR.Store) c;
+      out.write(' ');
+      write(i.addr);
+      out.write(i.type.toString());
+      out.write(" = ");
+      write(i.src);
+    } else if (c instanceof IR.Call) {
+      IR.Call i = (IR.Call) c;
+      if (i.rdst == null)
+	out.write(' ');
+      else
+	assign(i.rdst);
+      out.write(i.ind ? "call * " : "call ");
+      out.write(i.tgt.toString());
+      out.write('(');
+      for (int k = 0; k < i.args.length; k++) {
+	if (k > 0)
+	  out.write(", ");
+	write(i.args[k]);
+      }
+      out.write(')');
+    } else if (c instanceof IR.Return) {
+      IR.Return i = (IR.Return) c;
+      out.write(" return ");
+      if (i.val != null)
+	write(i.val);
+    } else if (c instanceof IR.CJump) {
+      IR.CJump i = (IR.CJump) c;
+      out.write(" if ");
+      write(i.src1);
+      out.write(' ');
+      out.write(i.op.toString());
+      out.write(' ');
+      write(i.src2);
+      out.write(" goto ");
+      out.write(i.lab.name);
+    } else if (c instanceof IR.Jump) {
+      out.write(" goto ");
+      out.write(((IR.Jump) c).lab.name);
+    } else if (c instanceof IR.LabelDec) {
+      out.write(((IR.LabelDec) c).lab.name);
+      out.write(':');
+    } else if (c instanceof IR.Phi) {
+      IR.Phi i = (IR.Phi) c;
+      assign(i.dst);
+      out.write("phi(");
+      for (int k = 0; k < i.args.length; k++) {
+	if (k > 0)
+	  out.write(", ");
+	out.write(i.preds[k].name);
+	out.write(": ");
+	write(i.args[k]);
+      }
+      out.write(')');
+    } else {
+      out.write(c.toString());	// unknown kind: fall back to its own text
+      return;
+    }
+    out.write('\n');
+  }
+
+  void assign(IR.Dest d) throws IOException {
+    out.write(' ');
+    write((IR.Src) d);
+    out.write(" = ");
+  }
+
+  void write(IR.Addr a) throws IOException {
+    if (a.offset != 0)
+      out.write(Integer.toString(a.offset));
+    out.write('[');
+    write(a.base);
+    out.write(']');
+  }
+
+  // Operands ---
+  //
+  void write(IR.Src s) throws IOException {
+    if (s instanceof IR.Id) {
+      out.write(((IR.Id) s).s);
+    } else if (s instanceof IR.Temp) {
+      out.write('t');
+      out.write(Integer.toString(((IR.Temp) s).num));
+    } else if (s instanceof IR.StrLit) {
+      out.write('"');
+      out.write(((IR.StrLit) s).s);
+      out.write('"');
+    } else {
+      out.write(s.toString());
+    }
+  }
+
+}
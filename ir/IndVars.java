@@ -0,0 +1,378 @@
+// CS322 HW2
+//
+
+// Induction-variable strength reduction and linear function test
+// replacement, on SSA form.
+//
+// A basic induction variable of a loop (LICM.loop) is a phi in its
+// header,
+//
+//   i = phi(i0, n, ...)     with   n = i + c  (or c + i, or i - c)
+//
+// where i0 comes from the one predecessor outside the loop, every other
+// arg is n or i itself, and c is an int literal. A derived induction
+// variable is "t = i * k" (or n * k) in the loop, with k an int literal.
+// Each such multiplication is replaced by an addition on a new temp s
+// that tracks i * k:
+//
+//   outside:  s0 = i0 * k                (before the branch to the loop)
+//   header:   s = phi(s0, s2, ...)
+//   loop:     n = i + c
+//             s2 = s + c*k
+//
+// and the uses of t read s (or s2, for n * k) instead. The products wrap
+// around just like the multiplications they replace.
+//
+// Linear function test replacement: if k > 0 and what is left of i and
+// n is a single test against a literal bound L, the test is rewritten
+// to compare s against L * k, and the phi and the increment of i are
+// deleted. That is only done when the two tests cannot disagree: the
+// test must run on every trip around the loop and leave it once i has
+// passed L in the direction of the step, and i0 must be a literal, so
+// the values compared all lie between i0 and L (give or take a step);
+// the products of those bounds with k must fit in an int.
+//
+// The rewriting does not change the blocks, so the CFG is built once:
+// the function is edited in a FuncBuilder, walking the loops outermost
+// first, and every multiplication found is reduced in turn. Each step
+// reads the code as the earlier steps left it.
+//
+package ir;
+import java.util.*;
+
+public class IndVars {
+
+  public static int reduced = 0;	// multiplications reduced
+  public static int replaced = 0;	// induction variables replaced in tests
+
+  // Program ---
+  //
+  public static IR.Program run(IR.Program p) {
+    IR.Func[] out = new IR.Func[p.funcs.length];
+    for (int i = 0; i < out.length; i++)
+      out[i] = run(p.funcs[i]);
+    return new IR.Program(p.data, out);
+  }
+
+  // Func (in SSA form) ---
+  //
+  public static IR.Func run(IR.Func f) {
+    return new IndVars(f).reduce();
+  }
+
+  final IR.Func f;
+  final CFG cfg;
+  final FuncBuilder fb;
+  final FuncBuilder.Node[] nodes;	// by inst of f
+  final Map<FuncBuilder.Node,Integer> blockOf = new HashMap<>();
+  final Set<IR.Reg> defined;		// registers with a definition
+
+  IndVars(IR.Func f) {
+    this.f = f;
+    cfg = new CFG(f);
+    fb = new FuncBuilder(f.gname, Arrays.asList(f.params),
+                         Arrays.asList(f.locals), f.regs());
+    nodes = new FuncBuilder.Node[f.code.length];
+    for (int i = 0; i < nodes.length; i++) {
+      nodes[i] = fb.append(f.code[i]);
+      blockOf.put(nodes[i], cfg.blockOf[i]);
+    }
+    defined = new HashSet<>(Arrays.asList(f.params));
+    for (IR.Inst c: f.code)
+      if (IRUtil.def(c) != null)
+        defined.add((IR.Reg) IRUtil.def(c));
+  }
+
+  IR.Func reduce() {
+    int before = reduced;
+    for (int h: cfg.rpo) {
+      boolean[] body = LICM.loop(cfg, h);
+      if (body == null)
+        continue;
+      for (int i = cfg.start[h]; i < cfg.end[h]; i++)
+        if (!nodes[i].removed() && nodes[i].inst() instanceof IR.Phi)
+          new IV(h, body, nodes[i]).reduce();
+    }
+    return reduced == before ? f : fb.freeze();
+  }
+
+  // Insert c after node n, in n's block.
+  //
+  FuncBuilder.Node insertAfter(FuncBuilder.Node n, IR.Inst c) {
+    FuncBuilder.Node m = fb.insertAfter(n, c);
+    blockOf.put(m, blockOf.get(n));
+    return m;
+  }
+
+  boolean in(boolean[] body, FuncBuilder.Node n) {
+    return body[blockOf.get(n)];
+  }
+
+  int pred(IR.Label l) {
+    int j = f.labelIndex(l);
+    return j < 0 ? -1 : cfg.blockOf[j];
+  }
+
+  class IV {
+    final int h;
+    final boolean[] body;
+    final FuncBuilder.Node phiAt;	// i's phi
+    final IR.Phi phi;
+    IR.Reg i, n;			// the variable and its next value
+    FuncBuilder.Node incAt;		// "n = i + c"
+    long c;				// step
+    int outside = -1;			// the predecessor outside the loop
+    IR.Src init;			// i0
+
+    IV(int h, boolean[] body, FuncBuilder.Node phiAt) {
+      this.h = h;
+      this.body = body;
+      this.phiAt = phiAt;
+      phi = (IR.Phi) phiAt.inst();
+      i = (IR.Reg) phi.dst;
+    }
+
+    // Reduce the multiplications by i in the loop.
+    //
+    void reduce() {
+      if (!basic())
+        return;
+      List<FuncBuilder.Node> muls = new ArrayList<>();
+      for (FuncBuilder.Node x: fb) {
+        if (!in(body, x) || !(x.inst() instanceof IR.Binop)
+            || ((IR.Binop) x.inst()).op != IR.AOP.MUL)
+          continue;
+        IR.Binop m = (IR.Binop) x.inst();
+        IR.Src a = m.src1, k = m.src2;
+        if (a instanceof IR.IntLit) {
+          a = m.src2;
+          k = m.src1;
+        }
+        if ((a.equals(i) || a.equals(n)) && k instanceof IR.IntLit
+            && ((IR.IntLit) k).i != 0)
+          muls.add(x);
+      }
+      for (FuncBuilder.Node x: muls) {
+        IR.Binop m = (IR.Binop) x.inst();
+        IR.Src k = m.src1 instanceof IR.IntLit ? m.src1 : m.src2;
+        rewrite(x, ((IR.IntLit) k).i);
+      }
+    }
+
+    // Find n, c, the outside predecessor and i0; return false if i is not
+    // a basic induction variable.
+    //
+    boolean basic() {
+      for (int p: cfg.pred[h])
+        if (cfg.reachable(p) && !body[p]) {
+          if (outside >= 0)
+            return false;
+          outside = p;
+        }
+      if (outside < 0)
+        return false;
+      for (int k = 0; k < phi.args.length; k++) {
+        int p = pred(phi.preds[k]);
+        IR.Src a = phi.args[k];
+        if (p == outside) {
+          init = a;
+        } else if (p >= 0 && body[p] && cfg.reachable(p) && !a.equals(i)) {
+          if (!(a instanceof IR.Reg) || (n != null && !n.equals(a)))
+            return false;
+          n = (IR.Reg) a;
+        }
+      }
+      if (n == null || init == null || !available(init))
+        return false;
+      for (FuncBuilder.Node x: fb)
+        if (in(body, x) && n.equals(IRUtil.def(x.inst())))
+          incAt = x;
+      if (incAt == null || !(incAt.inst() instanceof IR.Binop))
+        return false;
+      IR.Binop x = (IR.Binop) incAt.inst();
+      if (x.op == IR.AOP.ADD && x.src1.equals(i)
+          && x.src2 instanceof IR.IntLit)
+        c = ((IR.IntLit) x.src2).i;
+      else if (x.op == IR.AOP.ADD && x.src2.equals(i)
+               && x.src1 instanceof IR.IntLit)
+        c = ((IR.IntLit) x.src1).i;
+      else if (x.op == IR.AOP.SUB && x.src1.equals(i)
+               && x.src2 instanceof IR.IntLit)
+        c = -((IR.IntLit) x.src2).i;
+      else
+        return false;
+      return true;
+    }
+
+    // Return true if s is a literal or a register defined outside the
+    // loop (whose definition then dominates the outside predecessor).
+    //
+    boolean available(IR.Src s) {
+      if (!(s instanceof IR.Reg))
+        return s instanceof IR.IntLit;
+      if (!defined.contains(s))
+        return false;
+      for (FuncBuilder.Node x: fb)
+        if (in(body, x) && s.equals(IRUtil.def(x.inst())))
+          return false;
+      return true;
+    }
+
+    // Rewriting ---
+    //
+    // Reduce the multiplication at mul, unless the step c*k cannot be
+    // written as a literal.
+    //
+    void rewrite(FuncBuilder.Node mul, long k) {
+      int step = (int) (c * k);
+      IR.IntLit lit = IR.IntLit.of(step >= 0 ? step : -step);
+      if (!IRUtil.operandOK(lit))		// -MIN_VALUE
+        return;
+      IR.Temp s = fb.regs.freshTemp(), s2 = fb.regs.freshTemp();
+      IR.Inst pre = null;			// at the end of outside
+      IR.Src s0;
+      if (init instanceof IR.IntLit) {
+        s0 = IR.IntLit.of((int) (((IR.IntLit) init).i * k));
+      } else {
+        s0 = fb.regs.freshTemp();
+        pre = new IR.Binop(IR.AOP.MUL, (IR.Dest) s0, init,
+                           IR.IntLit.of((int) k));
+        defined.add((IR.Reg) s0);
+      }
+      defined.add(s);
+      defined.add(s2);
+      IR.Inst inc = new IR.Binop(step >= 0 ? IR.AOP.ADD : IR.AOP.SUB,
+                                 s2, s, lit);
+      IR.Src[] args = new IR.Src[phi.args.length];
+      for (int q = 0; q < args.length; q++) {
+        int p = pred(phi.preds[q]);
+        args[q] = phi.args[q].equals(n) ? s2
+          : phi.args[q].equals(i) && p >= 0 && body[p] ? s : s0;
+      }
+      IR.Binop m = (IR.Binop) mul.inst();
+      IR.Src prod = m.src1.equals(n) || m.src2.equals(n) ? s2 : s;
+      reduced++;
+
+      IRUtil.Subst sub = new IRUtil.Subst() {
+        public IR.Src src(IR.Src x) { return x.equals(m.dst) ? prod : x; }
+      };
+      fb.remove(mul);
+      for (FuncBuilder.Node x: fb)
+        if (IRUtil.uses(x.inst()).contains(m.dst))
+          fb.replace(x, IRUtil.subst(x.inst(), sub));
+      FuncBuilder.Node test = lftr(k);
+
+      if (pre != null) {
+        int last = cfg.end[outside] - 1;
+        boolean branch = f.code[last] instanceof IR.Jump
+          || f.code[last] instanceof IR.CJump;
+        FuncBuilder.Node at = branch ? nodes[last]
+          : nodes[cfg.start[h]];	// outside falls through into h
+        blockOf.put(fb.insertBefore(at, pre), outside);
+      }
+      insertAfter(phiAt, new IR.Phi(s, phi.preds, args));
+      insertAfter(incAt, inc);
+      if (test != null) {
+        replaced++;
+        IR.CJump cj = (IR.CJump) test.inst();
+        IR.IntLit kb = IR.IntLit.of((int) (bound(cj).i * k));
+        fb.replace(test, isVar(cj.src1)
+                   ? new IR.CJump(cj.op, cj.src1.equals(n) ? s2 : s, kb, cj.lab)
+                   : new IR.CJump(cj.op, kb, cj.src2.equals(n) ? s2 : s, cj.lab));
+        fb.remove(phiAt);
+        fb.remove(incAt);
+      }
+    }
+
+    // If i and n are now only used by the phi, the increment and one test
+    // that can be replaced (see above), return the test's node; otherwise
+    // null.
+    //
+    FuncBuilder.Node lftr(long k) {
+      if (k <= 0 || !(init instanceof IR.IntLit))
+        return null;
+      FuncBuilder.Node at = null;
+      for (FuncBuilder.Node x: fb) {
+        if (x == phiAt || x == incAt)
+          continue;
+        boolean uses = false;
+        for (IR.Src u: IRUtil.uses(x.inst()))
+          if (isVar(u))
+            uses = true;
+        if (!uses)
+          continue;
+        if (at != null || !(x.inst() instanceof IR.CJump) || !in(body, x))
+          return null;
+        at = x;
+      }
+      if (at == null)
+        return null;
+      IR.CJump cj = (IR.CJump) at.inst();
+      IR.IntLit bound = bound(cj);
+      if (bound == null)
+        return null;
+
+      // The test runs on every trip ...
+      int b = blockOf.get(at);
+      for (int p: cfg.pred[h])
+        if (body[p] && !cfg.dominates(b, p))
+          return null;
+
+      // ... and leaves the loop once v (i or n) passes the bound
+      int t = pred(cj.lab);
+      if (t < 0)
+        return null;
+      boolean takenExits = !body[t];
+      boolean fallExits = b + 1 >= cfg.nblocks || !body[b + 1];
+      if (takenExits == fallExits)
+        return null;
+      IR.ROP op = isVar(cj.src1) ? cj.op : swap(cj.op);	// "v op bound"
+      if (fallExits)
+        op = negate(op);
+      if (c > 0 ? op != IR.ROP.GE && op != IR.ROP.GT
+                : op != IR.ROP.LE && op != IR.ROP.LT)
+        return null;
+
+      // The values compared are within [lo, hi]
+      long i0 = ((IR.IntLit) init).i, l = bound.i;
+      long lo = Math.min(i0, l) - Math.abs(c);
+      long hi = Math.max(i0, l) + Math.abs(c);
+      if (lo * k < Integer.MIN_VALUE || hi * k > Integer.MAX_VALUE
+          || !IRUtil.operandOK(IR.IntLit.of((int) (l * k))))
+        return null;
+      return at;
+    }
+
+    boolean isVar(IR.Src x) { return x.equals(i) || x.equals(n); }
+
+    // Return the literal that test cj compares i or n with, or null.
+    //
+    IR.IntLit bound(IR.CJump cj) {
+      boolean left = isVar(cj.src1);
+      IR.Src v = left ? cj.src1 : cj.src2, l = left ? cj.src2 : cj.src1;
+      return isVar(v) && l instanceof IR.IntLit ? (IR.IntLit) l : null;
+    }
+  }
+
+  static IR.ROP swap(IR.ROP op) {
+    switch (op) {
+    case LT: return IR.ROP.GT;
+    case LE: return IR.ROP.GE;
+    case GT: return IR.ROP.LT;
+    case GE: return IR.ROP.LE;
+    default: return op;
+    }
+  }
+
+  static IR.ROP negate(IR.ROP op) {
+    switch (op) {
+    case EQ: return IR.ROP.NE;
+    case NE: return IR.ROP.EQ;
+    case LT: return IR.ROP.GE;
+    case LE: return IR.ROP.GT;
+    case GT: return IR.ROP.LE;
+    default: return IR.ROP.LT;
+    }
+  }
+
+}
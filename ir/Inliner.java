@@ -0,0 +1,163 @@
+// CS322 HW2
+//
+
+// IR-level function inliner.
+//
+// Splices the bodies of small, directly called functions into their
+// callers:
+//  - the callee's params, locals and temps are renamed to fresh names in
+//    the caller (params are bound to the call's args with Moves),
+//  - the callee's labels are replaced by labels not used in the caller,
+//  - each Return becomes a Move to the call's result plus a jump to a
+//    label placed after the spliced body.
+//
+// Inlined bodies are expanded again, so nested calls are inlined as well,
+// up to maxDepth levels (which also bounds recursive functions).
+//
+package ir;
+import java.util.*;
+
+public class Inliner {
+
+  public static int maxSize = 16;	// max callee size (in insts)
+  public static int maxDepth = 2;	// max nesting of inlined bodies
+  public static int inlined = 0;	// number of call sites inlined
+
+  // Program ---
+  //
+  public static IR.Program run(IR.Program p) {
+    HashMap<String, IR.Func> funcs = new HashMap<>();
+    for (IR.Func f: p.funcs)
+      funcs.put(f.gname.s, f);
+    IR.Func[] out = new IR.Func[p.funcs.length];
+    for (int i = 0; i < out.length; i++)
+      out[i] = new Inliner(p.funcs[i], funcs).run();
+    return new IR.Program(p.data, out);
+  }
+
+  //------------------------------------------------------------------------------
+  // Per-caller State
+  //-----------------
+
+  final IR.Func caller;
+  final Map<String, IR.Func> funcs;
+  final IR.Regs regs;			// caller's registers
+  final Set<String> labelsUsed;		// caller's label names
+  final List<IR.Id> locals;		// caller's locals (growing)
+
+  Inliner(IR.Func f, Map<String, IR.Func> funcs) {
+    this.caller = f;
+    this.funcs = funcs;
+    this.regs = f.regs();
+    this.labelsUsed = IRUtil.labelNames(f.code);
+    this.locals = new ArrayList<>(Arrays.asList(f.locals));
+  }
+
+  IR.Func run() {
+    List<IR.Inst> code = new ArrayList<>();
+    int before = inlined;
+    expand(caller.code, 0, code);
+    if (inlined == before)
+      return caller;
+    IRUtil.guardEntry(code);
+    return new IR.Func(caller.gname, Arrays.asList(caller.params), locals, code,
+                       regs);
+  }
+
+  // Copy code to out, replacing inlinable calls with callee bodies.
+  //
+  void expand(IR.Inst[] code, int depth, List<IR.Inst> out) {
+    for (IR.Inst c: code) {
+      IR.Func callee = depth < maxDepth ? inlinable(c) : null;
+      if (callee == null) {
+        out.add(c);
+      } else {
+        inlined++;
+        expand(splice((IR.Call) c, callee), depth+1, out);
+      }
+    }
+  }
+
+  // Return the callee if c is a direct call to a small enough function.
+  //
+  IR.Func inlinable(IR.Inst c) {
+    if (!(c instanceof IR.Call) || ((IR.Call) c).ind)
+      return null;
+    IR.CallTgt tgt = ((IR.Call) c).tgt;
+    if (!(tgt instanceof IR.Global))
+      return null;
+    IR.Func f = funcs.get(((IR.Global) tgt).s);
+    if (f == null || f.code.length > maxSize
+        || f.params.length != ((IR.Call) c).args.length)
+      return null;
+    return f;
+  }
+
+  // Return a renamed copy of callee's body for the call site c.
+  //
+  IR.Inst[] splice(IR.Call c, IR.Func callee) {
+    final HashMap<IR.Id, IR.Id> ids = new HashMap<>();
+    final HashMap<Integer, IR.Temp> temps = new HashMap<>();
+    final HashMap<String, IR.Label> labels = new HashMap<>();
+    for (IR.Id id: callee.params)
+      ids.put(id, freshId(id));
+    for (IR.Id id: callee.locals)
+      ids.put(id, freshId(id));
+    IRUtil.Subst m = new IRUtil.Subst() {
+      public IR.Src src(IR.Src s) {
+        if (s instanceof IR.Id && ids.containsKey(s))
+          return ids.get(s);
+        if (s instanceof IR.Temp)
+          return temp((IR.Temp) s);
+        return s;
+      }
+      public IR.Dest dest(IR.Dest d) { return (IR.Dest) src((IR.Src) d); }
+      public IR.Label label(IR.Label l) {
+        IR.Label nl = labels.get(l.name);
+        if (nl == null) {
+          nl = IRUtil.freshLabel(labelsUsed);
+          labels.put(l.name, nl);
+        }
+        return nl;
+      }
+      IR.Temp temp(IR.Temp t) {
+        IR.Temp nt = temps.get(t.num);
+        if (nt == null) {
+          nt = regs.freshTemp();
+          temps.put(t.num, nt);
+        }
+        return nt;
+      }
+    };
+
+    List<IR.Inst> body = new ArrayList<>();
+    for (int k = 0; k < c.args.length; k++)
+      body.add(new IR.Move(ids.get(callee.params[k]), c.args[k]));
+    IR.Label end = IRUtil.freshLabel(labelsUsed);
+    boolean endUsed = false;
+    for (int k = 0; k < callee.code.length; k++) {
+      IR.Inst i = IRUtil.subst(callee.code[k], m);
+      if (i instanceof IR.Return) {
+        IR.Src val = ((IR.Return) i).val;
+        if (c.rdst != null && val != null)
+          body.add(new IR.Move(c.rdst, val));
+        if (k < callee.code.length - 1) {
+          body.add(new IR.Jump(end));
+          endUsed = true;
+        }
+      } else {
+        body.add(i);
+      }
+    }
+    if (endUsed)
+      body.add(new IR.LabelDec(end));
+    return body.toArray(new IR.Inst[0]);
+  }
+
+  IR.Id freshId(IR.Id id) {
+    IR.Id nid = regs.freshId(id.s);
+    locals.add(nid);
+    return nid;
+  }
+
+}
@@ -0,0 +1,333 @@
+// CS322 HW2
+//
+
+// An interpreter for IR programs, with the same semantics as the one in
+// IRInterp.jar plus the _printBuf builtin that ir.PrintCoalesce targets.
+// It reads IR text (.ir) or the binary form that "IRGen -irb" writes
+// (.irb).
+//
+// Values are Integers, Booleans and Strings (string literals and global
+// names), or UNDEF. Memory is an array of byte-sized cells: a value is
+// stored in the cell at its address, and the rest of the cells its type
+// covers are cleared to UNDEF; _malloc and each data block take fresh
+// cells, starting from UNDEF. Reading a register that was never set is
+// an error.
+//
+// A function runs in its FlatFunc form, made on its first call: every
+// register operand is already its frame slot, and every branch its
+// target's index, so a call's frame is a flat array and executing an
+// inst does no lookups.
+//
+// Builtins:
+//
+//   _malloc(n)        address of n fresh cells
+//   _printInt(x)      print x and a newline (also _printBool)
+//   _printStr(s)      print s and a newline; with no arg, just a newline
+//   _printBuf(a, ..)  print each arg as _printInt/_printStr would, with
+//                     one write; string args are decoded first (see
+//                     PrintCoalesce.decode)
+//
+package ir;
+import java.io.*;
+import java.util.*;
+
+public class Interp {
+
+  static final Object UNDEF = new Object() {
+    public String toString() { return "UndVal"; }
+  };
+
+  static final IR.AOP[] AOPS = IR.AOP.values();
+  static final IR.ROP[] ROPS = IR.ROP.values();
+  static final IR.UOP[] UOPS = IR.UOP.values();
+
+  final Map<String,IR.Func> funcs = new HashMap<>();
+  final Map<String,FlatFunc> flat = new HashMap<>();	// funcs called so far
+  final Map<String,Integer> data = new HashMap<>();
+  Object[] mem = new Object[256];
+  int top = 0;				// next free cell
+  final PrintStream out;
+
+  public Interp(IR.Program p, PrintStream out) throws IR.IRException {
+    this.out = out;
+    for (IR.Func f: p.funcs)
+      funcs.put(f.gname.s, f);
+    for (IR.Data d: p.data) {
+      int a = alloc(d.size);
+      data.put(d.name.s, a);
+      for (IR.Global g: d.items) {
+        store(IR.Type.PTR, a, g.s);
+        a += IR.Type.PTR.size;
+      }
+    }
+  }
+
+  public static void run(IR.Program p, PrintStream out) throws IR.IRException {
+    Interp in = new Interp(p, out);
+    FlatFunc main = in.func("_main");
+    if (main == null)
+      throw new IR.IRException("Func '_main' is not defined.");
+    try {
+      in.call(main, new Object[0]);
+    } finally {
+      out.flush();
+    }
+  }
+
+  // Return the flat form of the function called name (null if there is
+  // none).
+  //
+  FlatFunc func(String name) throws IR.IRException {
+    FlatFunc ff = flat.get(name);
+    if (ff == null && funcs.containsKey(name)) {
+      try {
+        ff = new FlatFunc(funcs.get(name));
+      } catch (IllegalArgumentException e) {
+        throw new IR.IRException("Phi outside SSA passes in " + name);
+      }
+      flat.put(name, ff);
+    }
+    return ff;
+  }
+
+  // Memory ---
+  //
+  int alloc(int n) {
+    if (top + n > mem.length)
+      mem = Arrays.copyOf(mem, Math.max(top + n, 2 * mem.length));
+    Arrays.fill(mem, top, top + n, UNDEF);
+    top += n;
+    return top - n;
+  }
+
+  void store(IR.Type t, int a, Object v) throws IR.IRException {
+    check(a, t.size);
+    mem[a] = v;
+    Arrays.fill(mem, a + 1, a + t.size, UNDEF);
+  }
+
+  Object load(int a) throws IR.IRException {
+    check(a, 1);
+    return mem[a];
+  }
+
+  void check(int a, int n) throws IR.IRException {
+    if (a < 0 || a + n > top)
+      throw new IR.IRException("No value at storage location " + a);
+  }
+
+  // Funcs ---
+  //
+  Object call(FlatFunc f, Object[] args) throws IR.IRException {
+    Object[] frame = new Object[f.regs.length];	// params take slots 0..
+    System.arraycopy(args, 0, frame, 0, Math.min(args.length, f.params.length));
+    int pc = 0;
+    while (pc < f.size) {
+      int w = f.op[pc];
+      switch (FlatFunc.opcode(w)) {
+      case FlatFunc.BINOP: {
+        int sub = FlatFunc.subop(w);
+        Object x = value(f, frame, f.a[pc]), y = value(f, frame, f.b[pc]);
+        frame[f.dst[pc]] = sub >= FlatFunc.ROP_BASE
+          ? compare(ROPS[sub - FlatFunc.ROP_BASE], x, y, "Binop")
+          : binop(AOPS[sub], x, y);
+        break;
+      }
+      case FlatFunc.UNOP: {
+        Object v = value(f, frame, f.a[pc]);
+        frame[f.dst[pc]] = UOPS[FlatFunc.subop(w)] == IR.UOP.NEG
+          ? (Object) (-asInt(v)) : (Object) !asBool(v);
+        break;
+      }
+      case FlatFunc.MOVE:
+        frame[f.dst[pc]] = value(f, frame, f.a[pc]);
+        break;
+      case FlatFunc.LOAD:
+        frame[f.dst[pc]] = load(addr(f, frame, f.a[pc], f.c[pc]));
+        break;
+      case FlatFunc.STORE: {
+        Object v = value(f, frame, f.b[pc]);
+        store(f.type(pc), addr(f, frame, f.a[pc], f.c[pc]), v);
+        break;
+      }
+      case FlatFunc.CALL:
+        call(f, frame, pc);
+        break;
+      case FlatFunc.RETURN:
+        return f.a[pc] == FlatFunc.NONE ? UNDEF : value(f, frame, f.a[pc]);
+      case FlatFunc.CJUMP: {
+        boolean b = compare(ROPS[FlatFunc.subop(w)], value(f, frame, f.a[pc]),
+                            value(f, frame, f.b[pc]), "CJump");
+        if (b) {
+          pc = target(f, pc);
+          continue;
+        }
+        break;
+      }
+      case FlatFunc.JUMP:
+        pc = target(f, pc);
+        continue;
+      }
+      pc++;
+    }
+    return UNDEF;
+  }
+
+  int target(FlatFunc f, int pc) throws IR.IRException {
+    if (f.target[pc] < 0)
+      throw new IR.IRException("Undefined label in " + f.inst(pc));
+    return f.target[pc];
+  }
+
+  void call(FlatFunc f, Object[] frame, int pc) throws IR.IRException {
+    int tgt = f.a[pc];
+    String name;
+    if (!FlatFunc.indirect(f.op[pc])) {
+      name = f.globals[FlatFunc.index(tgt)].s;
+    } else {
+      Object t = FlatFunc.kind(tgt) == FlatFunc.GLOBAL
+        ? load(dataAddr(f.globals[FlatFunc.index(tgt)].s))
+        : value(f, frame, tgt);
+      if (!(t instanceof String))
+        throw new IR.IRException("Bad call target in " + f.inst(pc));
+      name = (String) t;
+    }
+    Object[] args = new Object[f.b[pc]];
+    for (int k = 0; k < args.length; k++)
+      args[k] = value(f, frame, f.args[f.c[pc] + k]);
+    Object r = UNDEF;
+    switch (name) {
+    case "_malloc":
+      r = alloc(asInt(args[0]));
+      break;
+    case "_printInt":
+    case "_printBool":
+      out.println(args[0]);
+      break;
+    case "_printStr":
+      out.println(args.length > 0 ? args[0] : "");
+      break;
+    case PrintCoalesce.PRINTBUF:
+      StringBuilder buf = new StringBuilder();
+      for (Object a: args)
+        buf.append(a instanceof String ? PrintCoalesce.decode((String) a) : a)
+           .append('\n');
+      out.print(buf);
+      break;
+    default:
+      FlatFunc g = func(name);
+      if (g == null)
+        throw new IR.IRException("Func " + name + " is not defined.");
+      r = call(g, args);
+    }
+    if (f.dst[pc] >= 0)
+      frame[f.dst[pc]] = r;
+  }
+
+  // Operands ---
+  //
+  Object value(FlatFunc f, Object[] frame, int rand) throws IR.IRException {
+    int i = FlatFunc.index(rand);
+    Object v = null;
+    switch (FlatFunc.kind(rand)) {
+    case FlatFunc.REG:    v = frame[i]; break;
+    case FlatFunc.INT:    v = (int) f.consts[i]; break;
+    case FlatFunc.BOOL:   v = i != 0; break;
+    case FlatFunc.GLOBAL: v = f.globals[i].s; break;
+    case FlatFunc.STR:    v = f.strs[i].s; break;
+    }
+    if (v == null)
+      throw new IR.IRException("Src '" + f.src(rand) + "' has no value");
+    return v;
+  }
+
+  int addr(FlatFunc f, Object[] frame, int base, int offset)
+      throws IR.IRException {
+    Object b = value(f, frame, base);
+    return (b instanceof String ? dataAddr((String) b) : asInt(b)) + offset;
+  }
+
+  int dataAddr(String name) throws IR.IRException {
+    Integer a = data.get(name);
+    if (a == null)
+      throw new IR.IRException("No data found for " + name);
+    return a;
+  }
+
+  // Operators ---
+  //
+  static Object binop(IR.BOP op, Object a, Object b) throws IR.IRException {
+    if (op instanceof IR.ROP)
+      return compare((IR.ROP) op, a, b, "Binop");
+    if (a instanceof Integer && b instanceof Integer) {
+      int x = (Integer) a, y = (Integer) b;
+      switch ((IR.AOP) op) {
+      case ADD: return x + y;
+      case SUB: return x - y;
+      case MUL: return x * y;
+      case DIV:
+        if (y == 0)
+          throw new IR.IRException("Division by zero");
+        return x / y;
+      }
+    } else if (a instanceof Boolean && b instanceof Boolean) {
+      if (op == IR.AOP.AND)
+        return (Boolean) a && (Boolean) b;
+      if (op == IR.AOP.OR)
+        return (Boolean) a || (Boolean) b;
+    }
+    throw new IR.IRException("Bad operands in Binop: " + a + " " + op + " " + b);
+  }
+
+  static boolean compare(IR.ROP op, Object a, Object b, String where)
+      throws IR.IRException {
+    if (a instanceof Integer && b instanceof Integer) {
+      int x = (Integer) a, y = (Integer) b;
+      switch (op) {
+      case EQ: return x == y;
+      case NE: return x != y;
+      case LT: return x < y;
+      case LE: return x <= y;
+      case GT: return x > y;
+      case GE: return x >= y;
+      }
+    } else if (a instanceof Boolean && b instanceof Boolean) {
+      if (op == IR.ROP.EQ)
+        return a.equals(b);
+      if (op == IR.ROP.NE)
+        return !a.equals(b);
+    }
+    throw new IR.IRException("Bad operands in " + where + ": " + a + " " + op
+                             + " " + b);
+  }
+
+  static int asInt(Object v) throws IR.IRException {
+    if (!(v instanceof Integer))
+      throw new IR.IRException("Integer value expected");
+    return (Integer) v;
+  }
+
+  static boolean asBool(Object v) throws IR.IRException {
+    if (!(v instanceof Boolean))
+      throw new IR.IRException("Boolean value expected");
+    return (Boolean) v;
+  }
+
+  //------------------------------------------------------------------------------
+  // Usage: java ir.Interp file.ir   -- run an IR program
+  //        java ir.Interp file.irb  -- ... in binary form (ir.IRBinary)
+  //
+  public static void main(String[] args) throws Exception {
+    if (args.length == 1) {
+      File f = new File(args[0]);
+      IR.Program p = args[0].endsWith(".irb") ? IRBinary.read(f)
+                                              : IRReader.read(f);
+      PrintStream out = new PrintStream(
+        new BufferedOutputStream(new FileOutputStream(FileDescriptor.out)), false);
+      run(p, out);
+    } else {
+      System.out.println("You must provide an input file name.");
+    }
+  }
+
+}
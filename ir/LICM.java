@@ -0,0 +1,304 @@
+// CS322 HW2
+//
+
+// Natural loops and loop-invariant code motion, on SSA form.
+//
+// An edge b -> h is a back edge if h dominates b; the natural loop of
+// header h is h plus every block that reaches one of its back edges
+// without going through h. An instruction of the loop is invariant if
+// each register it reads is defined outside the loop, or by another
+// invariant instruction (a register with no definition at all does not
+// count, as reading it is an error). Invariant Binops, Unops and Moves
+// are hoisted (except a "/" by anything but a nonzero literal, which
+// could trap); so are Loads, but only if the loop has no Store or Call
+// and the Load's block dominates every exit and back edge of the loop,
+// so that it runs whenever the loop is entered. In SSA form a hoisted
+// instruction still dominates all the uses of its dst.
+//
+// Hoisted code goes into a new preheader block, which takes the place of
+// the header's one predecessor outside the loop (loops entered from more
+// than one place are left alone): the preheader is put right before the
+// header, or, if a block of the loop falls through into the header, at
+// the end of the function with a jump back (after a "return", if the
+// old code could run off its end). The outside predecessor's branch (if
+// any) and the header's phis are redirected to it.
+//
+// The pass works in rounds. A round builds the CFG once and edits the
+// function in a FuncBuilder, hoisting out of every loop it can, innermost
+// first; a loop that overlaps one already changed in the round (an
+// enclosing loop, say) waits for the next round, which starts from the
+// new code. Rounds repeat until nothing moves, so code hoisted into an
+// inner loop's preheader can move out of the enclosing loops as well.
+//
+package ir;
+import java.util.*;
+
+public class LICM {
+
+  public static int loops = 0;		// preheaders inserted
+  public static int hoisted = 0;	// insts hoisted
+
+  // Program ---
+  //
+  public static IR.Program run(IR.Program p) {
+    IR.Func[] out = new IR.Func[p.funcs.length];
+    for (int i = 0; i < out.length; i++)
+      out[i] = run(p.funcs[i]);
+    return new IR.Program(p.data, out);
+  }
+
+  // Func (in SSA form) ---
+  //
+  public static IR.Func run(IR.Func f) {
+    for (IR.Func g; (g = round(f)) != null; )
+      f = g;
+    return f;
+  }
+
+  // Hoist the invariant code of each loop that has some and does not
+  // overlap a loop hoisted from before it; return null if no loop has
+  // any.
+  //
+  static IR.Func round(IR.Func f) {
+    CFG cfg = new CFG(f);
+    List<boolean[]> bodies = new ArrayList<>();
+    List<Integer> headers = new ArrayList<>();
+    for (int h: cfg.rpo) {
+      boolean[] body = loop(cfg, h);
+      if (body != null) {
+        bodies.add(body);
+        headers.add(h);
+      }
+    }
+    Integer[] order = new Integer[bodies.size()];
+    for (int k = 0; k < order.length; k++)
+      order[k] = k;
+    Arrays.sort(order, Comparator.comparingInt(k -> count(bodies.get(k))));
+
+    FuncBuilder fb = new FuncBuilder(f.gname, Arrays.asList(f.params),
+                                     Arrays.asList(f.locals), f.regs());
+    FuncBuilder.Node[] nodes = new FuncBuilder.Node[f.code.length];
+    for (int i = 0; i < nodes.length; i++)
+      nodes[i] = fb.append(f.code[i]);
+    Set<String> labels = IRUtil.labelNames(f.code);
+    boolean[] changed = new boolean[cfg.nblocks];	// by block, this round
+    boolean any = false;
+    for (int k: order) {
+      Loop l = new Loop(f, cfg, headers.get(k), bodies.get(k));
+      if (l.outside < 0 || changed[l.outside] || overlaps(l.body, changed)
+          || !l.hoist(fb, nodes, labels))
+        continue;
+      for (int b = 0; b < cfg.nblocks; b++)
+        changed[b] |= l.body[b];
+      changed[l.outside] = true;
+      any = true;
+    }
+    return any ? fb.freeze() : null;
+  }
+
+  static boolean overlaps(boolean[] a, boolean[] b) {
+    for (int k = 0; k < a.length; k++)
+      if (a[k] && b[k])
+        return true;
+    return false;
+  }
+
+  // Return the blocks of h's natural loop, or null if h is no header.
+  //
+  static boolean[] loop(CFG cfg, int h) {
+    boolean[] body = null;
+    int[] work = new int[cfg.nblocks];
+    int sp = 0;
+    for (int b: cfg.pred[h]) {
+      if (!cfg.reachable(b) || !cfg.dominates(h, b))
+        continue;
+      if (body == null) {
+        body = new boolean[cfg.nblocks];
+        body[h] = true;
+      }
+      if (!body[b]) {
+        body[b] = true;
+        work[sp++] = b;
+      }
+    }
+    while (sp > 0)
+      for (int p: cfg.pred[work[--sp]])
+        if (cfg.reachable(p) && !body[p]) {
+          body[p] = true;
+          work[sp++] = p;
+        }
+    return body;
+  }
+
+  static int count(boolean[] a) {
+    int n = 0;
+    for (boolean x: a)
+      if (x)
+        n++;
+    return n;
+  }
+
+  static class Loop {
+    final IR.Func f;
+    final CFG cfg;
+    final int h;
+    final boolean[] body;
+    final int outside;			// the one predecessor outside (or -1)
+    final boolean[] inv;		// by inst: hoisted
+    final List<Integer> hoist = new ArrayList<>();	// in dependence order
+
+    Loop(IR.Func f, CFG cfg, int h, boolean[] body) {
+      this.f = f;
+      this.cfg = cfg;
+      this.h = h;
+      this.body = body;
+      inv = new boolean[f.code.length];
+      int o = -1;
+      for (int p: cfg.pred[h])
+        if (cfg.reachable(p) && !body[p]) {
+          if (o >= 0) {
+            o = -1;
+            break;
+          }
+          o = p;
+        }
+      outside = o;
+    }
+
+    // Move the loop's invariant code into a new preheader in fb (whose
+    // nodes are those of f.code); return false if there is none.
+    //
+    boolean hoist(FuncBuilder fb, FuncBuilder.Node[] nodes,
+                  Set<String> labels) {
+      findInvariants();
+      if (hoist.isEmpty())
+        return false;
+      loops++;
+      hoisted += hoist.size();
+      rewrite(fb, nodes, labels);
+      return true;
+    }
+
+    // Invariants ---
+    //
+    void findInvariants() {
+      Set<IR.Reg> defs = new HashSet<>();	// defined in the loop
+      Set<IR.Reg> defined = new HashSet<>(Arrays.asList(f.params));
+      for (IR.Inst c: f.code)
+        if (IRUtil.def(c) != null)
+          defined.add((IR.Reg) IRUtil.def(c));
+      boolean memory = false;			// loop has a Store/Call
+      for (int b = 0; b < cfg.nblocks; b++)
+        if (body[b])
+          for (int i = cfg.start[b]; i < cfg.end[b]; i++) {
+            IR.Inst c = f.code[i];
+            if (IRUtil.def(c) != null)
+              defs.add((IR.Reg) IRUtil.def(c));
+            if (c instanceof IR.Store || c instanceof IR.Call)
+              memory = true;
+          }
+      for (boolean changed = true; changed; ) {
+        changed = false;
+        for (int b = 0; b < cfg.nblocks; b++) {
+          if (!body[b])
+            continue;
+          for (int i = cfg.start[b]; i < cfg.end[b]; i++) {
+            IR.Inst c = f.code[i];
+            if (inv[i] || !movable(c, b, memory))
+              continue;
+            boolean ok = true;
+            for (IR.Src s: IRUtil.uses(c))
+              if (s instanceof IR.Reg
+                  && (defs.contains(s) || !defined.contains(s)))
+                ok = false;
+            if (!ok)
+              continue;
+            inv[i] = true;
+            hoist.add(i);
+            defs.remove(IRUtil.def(c));
+            changed = true;
+          }
+        }
+      }
+    }
+
+    boolean movable(IR.Inst c, int b, boolean memory) {
+      if (c instanceof IR.Move || c instanceof IR.Unop)
+        return true;
+      if (c instanceof IR.Binop) {
+        IR.Binop x = (IR.Binop) c;
+        return x.op != IR.AOP.DIV
+          || (x.src2 instanceof IR.IntLit && ((IR.IntLit) x.src2).i != 0);
+      }
+      if (c instanceof IR.Load)
+        return !memory && alwaysRuns(b);
+      return false;
+    }
+
+    // Return true if block b dominates every exit and back edge of the
+    // loop.
+    //
+    boolean alwaysRuns(int b) {
+      for (int x = 0; x < cfg.nblocks; x++) {
+        if (!body[x])
+          continue;
+        boolean exit = cfg.succ[x].length == 0;
+        for (int s: cfg.succ[x])
+          if (!body[s] || s == h)
+            exit = true;
+        if (exit && !cfg.dominates(b, x))
+          return false;
+      }
+      return true;
+    }
+
+    // Rewriting ---
+    //
+    void rewrite(FuncBuilder fb, FuncBuilder.Node[] nodes,
+                 Set<String> labels) {
+      IR.Label lp = IRUtil.freshLabel(labels);
+      IR.Label lh = cfg.label(h), lo = cfg.label(outside);
+      IR.Inst before = h > 0 ? f.code[cfg.end[h - 1] - 1] : null;
+      boolean atEnd = h > 0 && body[h - 1] && !(before instanceof IR.Jump
+                                                || before instanceof IR.Return);
+      FuncBuilder.Node at = nodes[cfg.start[h]];	// h's label
+      if (atEnd) {
+        if (IRUtil.fallsThrough(fb.last().inst()))
+          fb.append(new IR.Return());
+        fb.append(new IR.LabelDec(lp));
+      } else
+        fb.insertBefore(at, new IR.LabelDec(lp));
+      for (int i: hoist) {
+        if (atEnd)
+          fb.append(f.code[i]);
+        else
+          fb.insertBefore(at, f.code[i]);
+        fb.remove(nodes[i]);
+      }
+      if (atEnd)
+        fb.append(new IR.Jump(lh));
+      int last = cfg.end[outside] - 1;
+      if (f.targets()[last] >= 0 && cfg.blockOf[f.targets()[last]] == h)
+        fb.replace(nodes[last], retarget(f.code[last], lp));
+      for (int i = cfg.start[h]; i < cfg.end[h]; i++)
+        if (f.code[i] instanceof IR.Phi)
+          fb.replace(nodes[i], repred((IR.Phi) f.code[i], lo, lp));
+    }
+
+    static IR.Inst retarget(IR.Inst c, IR.Label l) {
+      if (c instanceof IR.Jump)
+        return new IR.Jump(l);
+      IR.CJump j = (IR.CJump) c;
+      return new IR.CJump(j.op, j.src1, j.src2, l);
+    }
+
+    static IR.Phi repred(IR.Phi phi, IR.Label from, IR.Label to) {
+      IR.Label[] preds = phi.preds.clone();
+      for (int k = 0; k < preds.length; k++)
+        if (preds[k].name.equals(from.name))
+          preds[k] = to;
+      return new IR.Phi(phi.dst, preds, phi.args);
+    }
+  }
+
+}
@@ -0,0 +1,144 @@
+// CS322 HW2
+//
+
+// Print coalescing.
+//
+// Merges each run of two or more adjacent print calls
+//
+//   call _printStr("x = ")
+//   call _printInt(t1)
+//   call _printStr()
+//
+// into one call of the batched builtin _printBuf:
+//
+//   call _printBuf("x = ", t1, "")
+//
+// _printBuf prints each of its args followed by a newline, exactly as
+// the individual calls would have, but formats them into one buffer and
+// writes it once. Adjacent literal args (strings, ints, bools and blank
+// lines) are folded into a single string at compile time.
+//
+// Every string arg of _printBuf is encoded (see encode): a backslash is
+// written as "\\" and a line break as "\n", so the break between two
+// folded lines cannot be confused with a "\n" in the source text, which
+// stays "\\n". A _printStr of a register cannot be encoded, so it ends a
+// run rather than joining it.
+//
+// _printBuf is provided by the ir.Interp runtime (java ir.Interp x.ir);
+// the IRInterp.jar shipped with this code only knows the single-value
+// print routines.
+//
+package ir;
+import java.util.*;
+
+public class PrintCoalesce {
+
+  public static final String PRINTBUF = "_printBuf";
+
+  public static int merged = 0;		// number of print calls removed
+
+  // Program ---
+  //
+  public static IR.Program run(IR.Program p) {
+    IR.Func[] out = new IR.Func[p.funcs.length];
+    for (int i = 0; i < out.length; i++)
+      out[i] = run(p.funcs[i]);
+    return new IR.Program(p.data, out);
+  }
+
+  // Func ---
+  //
+  public static IR.Func run(IR.Func f) {
+    FuncBuilder b = new FuncBuilder(f);
+    return run(b) ? b.freeze() : f;
+  }
+
+  // Rewrite the print runs of b in place; return true if any were merged.
+  //
+  public static boolean run(FuncBuilder b) {
+    int before = merged;
+    for (FuncBuilder.Node n = b.first(); n != null; n = n.next()) {
+      List<IR.Call> prints = new ArrayList<>();
+      for (FuncBuilder.Node m = n; m != null && isPrint(m.inst()); m = m.next())
+        prints.add((IR.Call) m.inst());
+      if (prints.size() < 2)
+        continue;
+      b.replace(n, new IR.Call(IR.Global.of(PRINTBUF), false, args(prints),
+                               null));
+      for (int k = 1; k < prints.size(); k++)
+        b.remove(n.next());
+      merged += prints.size() - 1;
+    }
+    return merged != before;
+  }
+
+  // Return the _printBuf args for a run of print calls.
+  //
+  static List<IR.Src> args(List<IR.Call> prints) {
+    List<IR.Src> args = new ArrayList<>();
+    StringBuilder lit = null;	// pending literal lines, encoded
+    for (IR.Call c: prints) {
+      IR.Src arg = c.args.length == 0 ? IR.NULLSTR : c.args[0];
+      String s = literal(arg);
+      if (s != null) {
+        if (lit == null)
+          lit = new StringBuilder(encode(s));
+        else
+          lit.append("\\n").append(encode(s));
+      } else {
+        if (lit != null)
+          args.add(new IR.StrLit(lit.toString()));
+        lit = null;
+        args.add(arg);
+      }
+    }
+    if (lit != null)
+      args.add(new IR.StrLit(lit.toString()));
+    return args;
+  }
+
+  // Escape a printed line for a _printBuf string arg.
+  //
+  public static String encode(String s) {
+    return s.replace("\\", "\\\\");
+  }
+
+  // Turn a _printBuf string arg back into the text it prints (without
+  // the final newline).
+  //
+  public static String decode(String s) {
+    StringBuilder b = new StringBuilder();
+    for (int i = 0; i < s.length(); i++) {
+      char c = s.charAt(i);
+      if (c == '\\' && i + 1 < s.length()) {
+        c = s.charAt(++i);
+        if (c == 'n')
+          c = '\n';
+      }
+      b.append(c);
+    }
+    return b.toString();
+  }
+
+  // Return the printed text of a literal arg (null if not a literal).
+  //
+  static String literal(IR.Src s) {
+    if (s instanceof IR.StrLit)  return ((IR.StrLit) s).s;
+    if (s instanceof IR.IntLit)  return ((IR.IntLit) s).i + "";
+    if (s instanceof IR.BoolLit) return ((IR.BoolLit) s).b + "";
+    return null;
+  }
+
+  static boolean isPrint(IR.Inst c) {
+    if (!(c instanceof IR.Call))
+      return false;
+    IR.Call call = (IR.Call) c;
+    if (call.ind || call.rdst != null || !(call.tgt instanceof IR.Global))
+      return false;
+    String nm = ((IR.Global) call.tgt).s;
+    if (nm.equals("_printStr"))
+      return call.args.length == 0 || call.args[0] instanceof IR.StrLit;
+    return nm.equals("_printInt") || nm.equals("_printBool");
+  }
+
+}
@@ -0,0 +1,320 @@
+// CS322 HW2
+//
+
+// Sparse conditional constant propagation (Wegman-Zadeck), on SSA form.
+//
+// Each register has a lattice value: unknown (no definition seen to run
+// yet), a known int/bool literal, or BOTTOM (varies). Starting from the
+// entry block, the pass evaluates only code on edges found executable:
+// a CJump whose condition is a known literal makes just one of its edges
+// executable, and a phi meets only the args arriving on executable
+// edges. Values only move down the lattice, so the two worklists (CFG
+// edges, and the SSA uses of registers whose value changed) run out.
+//
+// Then the function is rewritten:
+//
+//   - blocks never found executable are deleted (and their args are
+//     dropped from the phis of the remaining blocks);
+//   - a Binop/Unop/Move/Phi with a known value becomes "dst = literal";
+//   - uses of registers with known values become the literal (except
+//     address bases, indirect call targets, and negative ints outside
+//     Moves, see IRUtil.operandOK);
+//   - a CJump with a known condition becomes a Jump, or is deleted.
+//
+// Params, loads, call results and undefined registers are BOTTOM.
+//
+package ir;
+import java.util.*;
+
+public class SCCP {
+
+  public static int folded = 0;		// defs turned into constants
+  public static int branches = 0;	// CJumps resolved
+  public static int before = 0;		// inst counts, before and after
+  public static int after = 0;
+
+  static final IR.Src BOTTOM = new IR.StrLit("<bottom>");
+
+  // Program ---
+  //
+  public static IR.Program run(IR.Program p) {
+    IR.Func[] out = new IR.Func[p.funcs.length];
+    for (int i = 0; i < out.length; i++)
+      out[i] = run(p.funcs[i]);
+    return new IR.Program(p.data, out);
+  }
+
+  // Func (in SSA form) ---
+  //
+  public static IR.Func run(IR.Func f) {
+    IR.Func g = new SCCP(f).rewrite();
+    before += f.code.length;
+    after += g.code.length;
+    return g;
+  }
+
+  final IR.Func f;
+  final CFG cfg;
+  final IR.Src[] val;			// by slot: null (unknown), literal, BOTTOM
+  final List<List<Integer>> users;	// by slot: insts using it
+  final boolean[] live;			// executable blocks
+  final Set<Long> edges = new HashSet<>();	// executable edges
+  final ArrayDeque<int[]> flowWork = new ArrayDeque<>();
+  final ArrayDeque<Integer> ssaWork = new ArrayDeque<>();
+
+  SCCP(IR.Func f) {
+    this.f = f;
+    cfg = new CFG(f);
+    int nv = f.slotCount();
+    val = new IR.Src[nv];
+    users = new ArrayList<>(nv);
+    for (int v = 0; v < nv; v++)
+      users.add(new ArrayList<>());
+    boolean[] defined = new boolean[nv];
+    for (int i = 0; i < f.code.length; i++) {
+      for (IR.Src s: IRUtil.uses(f.code[i]))
+        if (s instanceof IR.Reg)
+          users.get(slot(s)).add(i);
+      IR.Dest d = IRUtil.def(f.code[i]);
+      if (d != null)
+        defined[slot(d)] = true;
+    }
+    for (int v = 0; v < nv; v++)
+      if (!defined[v])
+        val[v] = BOTTOM;
+    live = new boolean[cfg.nblocks];
+    solve();
+  }
+
+  int slot(Object r) { return f.slotOf((IR.Reg) r); }
+
+  long edge(int p, int b) { return (long) p * cfg.nblocks + b; }
+
+  // Solving ---
+  //
+  void solve() {
+    if (cfg.nblocks == 0)
+      return;
+    flowWork.add(new int[] { -1, 0 });
+    while (!flowWork.isEmpty() || !ssaWork.isEmpty()) {
+      while (!flowWork.isEmpty()) {
+        int[] e = flowWork.poll();
+        int p = e[0], b = e[1];
+        if (p >= 0 && !edges.add(edge(p, b)))
+          continue;
+        for (int i = cfg.start[b]; i < cfg.end[b]; i++)
+          if (f.code[i] instanceof IR.Phi)
+            visit(i);
+        if (!live[b]) {
+          live[b] = true;
+          for (int i = cfg.start[b]; i < cfg.end[b]; i++)
+            if (!(f.code[i] instanceof IR.Phi))
+              visit(i);
+          visitBranch(b);
+        }
+      }
+      while (!ssaWork.isEmpty()) {
+        int i = ssaWork.poll();
+        int b = cfg.blockOf[i];
+        if (!live[b])
+          continue;
+        visit(i);
+        if (i == cfg.end[b] - 1)
+          visitBranch(b);
+      }
+    }
+  }
+
+  void visit(int i) {
+    IR.Inst c = f.code[i];
+    IR.Dest d = IRUtil.def(c);
+    if (d == null)
+      return;
+    IR.Src v = eval(c, i);
+    int dv = slot(d);
+    if (same(v, val[dv]))
+      return;
+    val[dv] = v;
+    ssaWork.addAll(users.get(dv));
+  }
+
+  // Add the executable out-edges of live block b.
+  //
+  void visitBranch(int b) {
+    IR.Inst last = f.code[cfg.end[b] - 1];
+    int t = last instanceof IR.Jump || last instanceof IR.CJump
+      ? cfg.blockOf[f.targets()[cfg.end[b] - 1]] : -1;
+    boolean fall = !(last instanceof IR.Jump || last instanceof IR.Return)
+      && b + 1 < cfg.nblocks;
+    if (last instanceof IR.CJump) {
+      IR.Src cond = cond((IR.CJump) last);
+      if (cond == null)			// not known yet
+        return;
+      if (cond != BOTTOM) {
+        if (((IR.BoolLit) cond).b)
+          fall = false;
+        else
+          t = -1;
+      }
+    }
+    if (t >= 0)
+      flowWork.add(new int[] { b, t });
+    if (fall)
+      flowWork.add(new int[] { b, b + 1 });
+  }
+
+  // Evaluation ---
+  //
+  IR.Src value(IR.Src s) {
+    if (s instanceof IR.Reg)
+      return val[slot(s)];
+    if (s instanceof IR.IntLit || s instanceof IR.BoolLit)
+      return s;
+    return BOTTOM;
+  }
+
+  IR.Src eval(IR.Inst c, int i) {
+    if (c instanceof IR.Move)
+      return value(((IR.Move) c).src);
+    if (c instanceof IR.Binop) {
+      IR.Binop x = (IR.Binop) c;
+      return apply(value(x.src1), value(x.src2), x.op);
+    }
+    if (c instanceof IR.Unop) {
+      IR.Src a = value(((IR.Unop) c).src);
+      if (a == null || a == BOTTOM)
+        return a;
+      IR.Src r = IRUtil.fold(((IR.Unop) c).op, a);
+      return r == null ? BOTTOM : r;
+    }
+    if (c instanceof IR.Phi) {
+      IR.Phi phi = (IR.Phi) c;
+      int b = cfg.blockOf[i];
+      IR.Src v = null;
+      for (int k = 0; k < phi.args.length; k++) {
+        if (!edges.contains(edge(predBlock(phi.preds[k]), b)))
+          continue;
+        IR.Src a = value(phi.args[k]);
+        if (a == null)
+          continue;
+        if (a == BOTTOM || (v != null && !same(v, a)))
+          return BOTTOM;
+        v = a;
+      }
+      return v;
+    }
+    return BOTTOM;			// Load, Call
+  }
+
+  IR.Src apply(IR.Src a, IR.Src b, IR.BOP op) {
+    if (a == BOTTOM || b == BOTTOM)
+      return BOTTOM;
+    if (a == null || b == null)
+      return null;
+    IR.Src r = IRUtil.fold(op, a, b);
+    return r == null ? BOTTOM : r;
+  }
+
+  IR.Src cond(IR.CJump c) { return apply(value(c.src1), value(c.src2), c.op); }
+
+  int predBlock(IR.Label l) {
+    int i = f.labelIndex(l);
+    return i < 0 ? -1 : cfg.blockOf[i];
+  }
+
+  static boolean same(IR.Src a, IR.Src b) {
+    return a == b || (a != null && b != null && IRUtil.sameLit(a, b));
+  }
+
+  static boolean known(IR.Src v) { return v != null && v != BOTTOM; }
+
+  // Rewriting ---
+  //
+  IR.Func rewrite() {
+    List<IR.Inst> code = new ArrayList<>();
+    IRUtil.Subst m = new IRUtil.Subst() {	// for Move sources, phi args
+      public IR.Src src(IR.Src s) {
+        if (s instanceof IR.Reg && known(val[slot(s)]))
+          return val[slot(s)];
+        return s;
+      }
+    };
+    IRUtil.Subst mo = new IRUtil.Subst() {	// for other operands
+      public IR.Src src(IR.Src s) {
+        IR.Src v = m.src(s);
+        return IRUtil.operandOK(v) ? v : s;
+      }
+    };
+    for (int b = 0; b < cfg.nblocks; b++) {
+      if (!live[b])
+        continue;
+      List<IR.Inst> moves = new ArrayList<>();	// from constant phis
+      for (int i = cfg.start[b]; i < cfg.end[b]; i++) {
+        IR.Inst c = f.code[i];
+        IR.Dest d = IRUtil.def(c);
+        if (d != null && known(val[slot(d)]) && !(c instanceof IR.Call)
+            && !(c instanceof IR.Load)) {
+          if (!(c instanceof IR.Move))
+            folded++;
+          IR.Move mv = new IR.Move(d, val[slot(d)]);
+          if (c instanceof IR.Phi)
+            moves.add(mv);
+          else
+            code.add(mv);
+          continue;
+        }
+        if (!(c instanceof IR.Phi) && !moves.isEmpty()) {
+          code.addAll(moves);
+          moves.clear();
+        }
+        if (c instanceof IR.Phi) {
+          code.add(livePhi((IR.Phi) c, b, m));
+        } else if (c instanceof IR.CJump && known(cond((IR.CJump) c))) {
+          branches++;
+          if (((IR.BoolLit) cond((IR.CJump) c)).b)
+            code.add(new IR.Jump(((IR.CJump) c).lab));
+        } else {
+          code.add(substUses(c, c instanceof IR.Move ? m : mo));
+        }
+      }
+      code.addAll(moves);
+    }
+    return new IR.Func(f.gname, Arrays.asList(f.params),
+                       Arrays.asList(f.locals), code, f.regs());
+  }
+
+  // Return phi without the args of non-executable edges.
+  //
+  IR.Phi livePhi(IR.Phi phi, int b, IRUtil.Subst m) {
+    List<IR.Label> preds = new ArrayList<>();
+    List<IR.Src> args = new ArrayList<>();
+    for (int k = 0; k < phi.args.length; k++)
+      if (edges.contains(edge(predBlock(phi.preds[k]), b))) {
+        preds.add(phi.preds[k]);
+        args.add(m.src(phi.args[k]));
+      }
+    return new IR.Phi(phi.dst, preds.toArray(new IR.Label[0]),
+                      args.toArray(new IR.Src[0]));
+  }
+
+  // Substitute literals for uses, keeping address bases and indirect
+  // call targets as they are.
+  //
+  static IR.Inst substUses(IR.Inst c, IRUtil.Subst m) {
+    if (c instanceof IR.Load)
+      return c;
+    if (c instanceof IR.Store) {
+      IR.Store i = (IR.Store) c;
+      return new IR.Store(i.type, i.addr, m.src(i.src));
+    }
+    if (c instanceof IR.Call && ((IR.Call) c).ind) {
+      IR.Call i = (IR.Call) c;
+      IR.Src[] args = new IR.Src[i.args.length];
+      for (int k = 0; k < args.length; k++)
+        args[k] = m.src(i.args[k]);
+      return new IR.Call(i.tgt, true, args, i.rdst);
+    }
+    return IRUtil.subst(c, m);
+  }
+
+}
@@ -0,0 +1,449 @@
+// CS322 HW2
+//
+
+// SSA construction and destruction.
+//
+// toSSA gives every definition of a variable or temp its own register:
+// the k-th new version of variable x is named x_k (made unique by the
+// function's register table, IR.Regs, and added to the locals), and new
+// versions of temps get fresh numbers. At join points, an IR.Phi selects the version that
+// arrives along each incoming edge. Phis are placed at the iterated
+// dominance frontiers of each register's definitions (Cytron et al.),
+// pruned to the blocks where the register is live on entry, and renaming
+// walks the dominator tree. Params keep their names: the incoming value
+// is the original register. So does any use that no definition reaches.
+// A local left with no def or use once renaming is done is dropped from
+// the locals (by fromSSA as well).
+//
+// To let a phi name its predecessors, toSSA first makes every basic
+// block start with a LabelDec (adding fresh labels), and makes sure no
+// branch goes back to the entry block (IRUtil.guardEntry).
+//
+// fromSSA replaces each phi with moves on its incoming edges. The moves
+// of one edge form a parallel copy, which is sequentialized, breaking
+// cycles with a fresh temp. Moves go at the end of the predecessor: just
+// before its Jump, or after its CJump for the fallthrough edge. A taken
+// CJump edge that needs moves is split into a new block at the end of
+// the function, behind a "return" if the code could run off its end. A
+// copy from a register that is never defined (an undefined value) is
+// dropped. Labels no branch refers to, and jumps to the very next
+// instruction, are then removed.
+//
+package ir;
+import java.util.*;
+
+public class SSA {
+
+  public static int phis = 0;		// phis placed by toSSA
+  public static int copies = 0;		// moves emitted for phis by fromSSA
+
+  // Program ---
+  //
+  public static IR.Program toSSA(IR.Program p) {
+    IR.Func[] out = new IR.Func[p.funcs.length];
+    for (int i = 0; i < out.length; i++)
+      out[i] = toSSA(p.funcs[i]);
+    return new IR.Program(p.data, out);
+  }
+
+  public static IR.Program fromSSA(IR.Program p) {
+    IR.Func[] out = new IR.Func[p.funcs.length];
+    for (int i = 0; i < out.length; i++)
+      out[i] = fromSSA(p.funcs[i]);
+    return new IR.Program(p.data, out);
+  }
+
+  //------------------------------------------------------------------------------
+  // Construction
+  //-------------
+
+  public static IR.Func toSSA(IR.Func f) {
+    return new Builder(labelBlocks(f)).build();
+  }
+
+  // Return f with a LabelDec at the start of every basic block.
+  //
+  static IR.Func labelBlocks(IR.Func f) {
+    List<IR.Inst> code = new ArrayList<>(Arrays.asList(f.code));
+    IRUtil.guardEntry(code);
+    Set<String> used = IRUtil.labelNames(f.code);
+    List<IR.Inst> out = new ArrayList<>();
+    boolean leader = true;
+    for (IR.Inst c: code) {
+      if (leader && !(c instanceof IR.LabelDec))
+        out.add(new IR.LabelDec(IRUtil.freshLabel(used)));
+      out.add(c);
+      leader = c instanceof IR.Jump || c instanceof IR.CJump
+        || c instanceof IR.Return;
+    }
+    return new IR.Func(f.gname, Arrays.asList(f.params),
+                       Arrays.asList(f.locals), out, f.regs());
+  }
+
+  static class Builder {
+    final IR.Func g;
+    final CFG cfg;
+    final int nv;			// number of registers (slots)
+    final List<IR.Id> locals;
+    final IR.Regs regs;
+    final IR.Phi[][] phiAt;		// phis of each block
+    final int[][] phiVar;		// ... and their registers' slots
+    final List<List<IR.Src>> stacks;	// current versions, by slot
+    final IR.Inst[] out;		// renamed code, by index
+
+    Builder(IR.Func g) {
+      this.g = g;
+      cfg = new CFG(g);
+      nv = g.slotCount();
+      locals = new ArrayList<>(Arrays.asList(g.locals));
+      regs = g.regs();
+      phiAt = new IR.Phi[cfg.nblocks][];
+      phiVar = new int[cfg.nblocks][];
+      stacks = new ArrayList<>(nv);
+      for (int v = 0; v < nv; v++)
+        stacks.add(new ArrayList<>());
+      out = g.code.clone();
+    }
+
+    IR.Func build() {
+      placePhis();
+      rename();
+      List<IR.Inst> code = new ArrayList<>();
+      for (int b = 0; b < cfg.nblocks; b++) {
+        code.add(out[cfg.start[b]]);			// the block's label
+        if (phiAt[b] != null)
+          code.addAll(Arrays.asList(phiAt[b]));
+        for (int i = cfg.start[b] + 1; i < cfg.end[b]; i++)
+          code.add(out[i]);
+      }
+      return new IR.Func(g.gname, Arrays.asList(g.params),
+                         IRUtil.mentioned(locals, code), code, regs);
+    }
+
+    // Phi placement ---
+    //
+    void placePhis() {
+      int nb = cfg.nblocks;
+      BitSet[] liveIn = liveIn();
+      List<List<Integer>> defs = new ArrayList<>(nv);
+      for (int v = 0; v < nv; v++)
+        defs.add(new ArrayList<>());
+      for (IR.Id id: g.params)
+        addDef(defs.get(g.slotOf(id)), 0);
+      for (int b: cfg.rpo)
+        for (int i = cfg.start[b]; i < cfg.end[b]; i++) {
+          IR.Dest d = IRUtil.def(g.code[i]);
+          if (d != null)
+            addDef(defs.get(g.slotOf((IR.Reg) d)), b);
+        }
+      List<List<Integer>> vars = new ArrayList<>(nb);
+      for (int b = 0; b < nb; b++)
+        vars.add(null);
+      int[] hasPhi = new int[nb], queued = new int[nb];
+      ArrayDeque<Integer> work = new ArrayDeque<>();
+      for (int v = 0; v < nv; v++) {
+        for (int b: defs.get(v)) {
+          queued[b] = v + 1;
+          work.add(b);
+        }
+        while (!work.isEmpty()) {
+          int x = work.poll();
+          for (int y: cfg.df[x]) {
+            if (hasPhi[y] == v + 1 || !liveIn[y].get(v))
+              continue;
+            hasPhi[y] = v + 1;
+            if (vars.get(y) == null)
+              vars.set(y, new ArrayList<>());
+            vars.get(y).add(v);
+            if (queued[y] != v + 1) {
+              queued[y] = v + 1;
+              work.add(y);
+            }
+          }
+        }
+      }
+      for (int b = 0; b < nb; b++) {
+        List<Integer> vs = vars.get(b);
+        if (vs == null)
+          continue;
+        IR.Label[] preds = new IR.Label[cfg.pred[b].length];
+        for (int k = 0; k < preds.length; k++)
+          preds[k] = cfg.label(cfg.pred[b][k]);
+        phiAt[b] = new IR.Phi[vs.size()];
+        phiVar[b] = new int[vs.size()];
+        for (int j = 0; j < vs.size(); j++) {
+          int v = vs.get(j);
+          IR.Src[] args = new IR.Src[preds.length];
+          Arrays.fill(args, (IR.Src) g.slotReg(v));
+          phiAt[b][j] = new IR.Phi((IR.Dest) g.slotReg(v), preds, args);
+          phiVar[b][j] = v;
+        }
+        phis += vs.size();
+      }
+    }
+
+    static void addDef(List<Integer> l, int b) {
+      if (l.isEmpty() || l.get(l.size() - 1) != b)
+        l.add(b);
+    }
+
+    // Return the registers live on entry to each reachable block.
+    //
+    BitSet[] liveIn() {
+      int nb = cfg.nblocks;
+      BitSet[] use = new BitSet[nb], def = new BitSet[nb], in = new BitSet[nb];
+      for (int b = 0; b < nb; b++) {
+        use[b] = new BitSet(nv);
+        def[b] = new BitSet(nv);
+        in[b] = new BitSet(nv);
+        for (int i = cfg.start[b]; i < cfg.end[b]; i++) {
+          for (IR.Src s: IRUtil.uses(g.code[i]))
+            if (s instanceof IR.Reg) {
+              int v = g.slotOf((IR.Reg) s);
+              if (!def[b].get(v))
+                use[b].set(v);
+            }
+          IR.Dest d = IRUtil.def(g.code[i]);
+          if (d != null)
+            def[b].set(g.slotOf((IR.Reg) d));
+        }
+      }
+      for (boolean changed = true; changed; ) {
+        changed = false;
+        for (int k = cfg.rpo.length - 1; k >= 0; k--) {
+          int b = cfg.rpo[k];
+          BitSet live = new BitSet(nv);
+          for (int s: cfg.succ[b])
+            live.or(in[s]);
+          live.andNot(def[b]);
+          live.or(use[b]);
+          if (!live.equals(in[b])) {
+            in[b] = live;
+            changed = true;
+          }
+        }
+      }
+      return in;
+    }
+
+    // Renaming ---
+    //
+    IR.Src current(int v) {
+      List<IR.Src> st = stacks.get(v);
+      return st.isEmpty() ? (IR.Src) g.slotReg(v) : st.get(st.size() - 1);
+    }
+
+    IR.Dest fresh(int v) {
+      IR.Reg r = g.slotReg(v);
+      if (r instanceof IR.Temp)
+        return regs.freshTemp();
+      IR.Id id = regs.freshId(((IR.Id) r).s);
+      locals.add(id);
+      return id;
+    }
+
+    // Walk the dominator tree (iteratively), renaming each block on the
+    // way down and popping its versions on the way up.
+    //
+    void rename() {
+      int nb = cfg.nblocks;
+      if (nb == 0)
+        return;
+      int[] stack = new int[nb], edge = new int[nb], mark = new int[nb];
+      List<Integer> trail = new ArrayList<>();	// slots pushed, in order
+      int sp = 0;
+      stack[sp++] = 0;
+      mark[0] = 0;
+      renameBlock(0, trail);
+      while (sp > 0) {
+        int b = stack[sp - 1];
+        if (edge[b] < cfg.kids[b].length) {
+          int c = cfg.kids[b][edge[b]++];
+          mark[c] = trail.size();
+          renameBlock(c, trail);
+          stack[sp++] = c;
+        } else {
+          while (trail.size() > mark[b]) {
+            List<IR.Src> st = stacks.get(trail.remove(trail.size() - 1));
+            st.remove(st.size() - 1);
+          }
+          sp--;
+        }
+      }
+    }
+
+    void renameBlock(int b, List<Integer> trail) {
+      if (phiAt[b] != null)
+        for (int j = 0; j < phiAt[b].length; j++) {
+          int v = phiVar[b][j];
+          IR.Dest nd = fresh(v);
+          phiAt[b][j] = new IR.Phi(nd, phiAt[b][j].preds, phiAt[b][j].args);
+          stacks.get(v).add((IR.Src) nd);
+          trail.add(v);
+        }
+      for (int i = cfg.start[b]; i < cfg.end[b]; i++) {
+        IR.Inst c = g.code[i];
+        if (c instanceof IR.LabelDec)
+          continue;
+        IR.Dest d = IRUtil.def(c);
+        int dv = d == null ? -1 : g.slotOf((IR.Reg) d);
+        IR.Dest nd = d == null ? null : fresh(dv);
+        out[i] = IRUtil.subst(c, new IRUtil.Subst() {
+          public IR.Src src(IR.Src s) {
+            return s instanceof IR.Reg ? current(g.slotOf((IR.Reg) s)) : s;
+          }
+          public IR.Dest dest(IR.Dest x) { return nd; }
+        });
+        if (nd != null) {
+          stacks.get(dv).add((IR.Src) nd);
+          trail.add(dv);
+        }
+      }
+      for (int s: cfg.succ[b]) {
+        if (phiAt[s] == null)
+          continue;
+        int k = 0;
+        while (cfg.pred[s][k] != b)
+          k++;
+        for (int j = 0; j < phiAt[s].length; j++)
+          phiAt[s][j].args[k] = current(phiVar[s][j]);
+      }
+    }
+  }
+
+  //------------------------------------------------------------------------------
+  // Destruction
+  //------------
+
+  public static IR.Func fromSSA(IR.Func f) {
+    CFG cfg = new CFG(f);
+    IR.Regs regs = f.regs();
+    Set<String> labels = IRUtil.labelNames(f.code);
+    Set<IR.Reg> defined = new HashSet<>(Arrays.asList(f.params));
+    for (IR.Inst c: f.code)
+      if (IRUtil.def(c) != null)
+        defined.add((IR.Reg) IRUtil.def(c));
+    List<IR.Inst> code = new ArrayList<>(), split = new ArrayList<>();
+    int nb = cfg.nblocks;
+    for (int b = 0; b < nb; b++) {
+      int last = cfg.end[b] - 1;
+      IR.Inst term = f.code[last];
+      boolean branch = term instanceof IR.Jump || term instanceof IR.CJump;
+      for (int i = cfg.start[b]; i < (branch ? last : cfg.end[b]); i++)
+        if (!(f.code[i] instanceof IR.Phi))
+          code.add(f.code[i]);
+      if (term instanceof IR.Jump) {
+        if (f.targets()[last] >= 0)
+          code.addAll(copies(f, cfg, b, cfg.blockOf[f.targets()[last]],
+                             defined, regs));
+        code.add(term);
+      } else if (term instanceof IR.CJump) {
+        IR.CJump cj = (IR.CJump) term;
+        List<IR.Inst> taken = f.targets()[last] < 0 ? new ArrayList<>()
+          : copies(f, cfg, b, cfg.blockOf[f.targets()[last]], defined, regs);
+        if (taken.isEmpty()) {
+          code.add(cj);
+        } else {
+          IR.Label l = IRUtil.freshLabel(labels);
+          code.add(new IR.CJump(cj.op, cj.src1, cj.src2, l));
+          split.add(new IR.LabelDec(l));
+          split.addAll(taken);
+          split.add(new IR.Jump(cj.lab));
+        }
+      }
+      if (!(term instanceof IR.Jump || term instanceof IR.Return) && b + 1 < nb)
+        code.addAll(copies(f, cfg, b, b + 1, defined, regs));
+    }
+    if (!split.isEmpty())
+      IRUtil.endWithReturn(code);
+    code.addAll(split);
+    cleanup(code);
+    IRUtil.guardEntry(code);
+    return new IR.Func(f.gname, Arrays.asList(f.params),
+                       IRUtil.mentioned(Arrays.asList(f.locals), code), code,
+                       regs);
+  }
+
+  // Return the moves for the phis of block s on the edge from block p.
+  //
+  static List<IR.Inst> copies(IR.Func f, CFG cfg, int p, int s,
+                              Set<IR.Reg> defined, IR.Regs regs) {
+    List<IR.Dest> dsts = new ArrayList<>();
+    List<IR.Src> srcs = new ArrayList<>();
+    IR.Label lp = cfg.label(p);
+    for (int i = cfg.start[s]; i < cfg.end[s] && lp != null; i++) {
+      if (!(f.code[i] instanceof IR.Phi))
+        continue;
+      IR.Phi phi = (IR.Phi) f.code[i];
+      for (int k = 0; k < phi.preds.length; k++)
+        if (phi.preds[k].name.equals(lp.name)) {
+          IR.Src a = phi.args[k];
+          if (!a.equals(phi.dst)
+              && !(a instanceof IR.Reg && !defined.contains(a))) {
+            dsts.add(phi.dst);
+            srcs.add(a);
+          }
+          break;
+        }
+    }
+    return sequentialize(dsts, srcs, regs);
+  }
+
+  // Order a parallel copy (dsts[i] <- srcs[i], all dsts distinct) as a
+  // list of moves. A move is ready when no pending move still reads its
+  // dst; when none is ready, the rest are cycles, and one is broken by
+  // saving a dst in a fresh temp.
+  //
+  static List<IR.Inst> sequentialize(List<IR.Dest> dsts, List<IR.Src> srcs,
+                                     IR.Regs regs) {
+    List<IR.Inst> moves = new ArrayList<>();
+    while (!dsts.isEmpty()) {
+      int ready = -1;
+      for (int j = 0; j < dsts.size() && ready < 0; j++)
+        if (!srcs.contains((IR.Src) dsts.get(j)))
+          ready = j;
+      if (ready >= 0) {
+        moves.add(new IR.Move(dsts.remove(ready), srcs.remove(ready)));
+        continue;
+      }
+      IR.Src d = (IR.Src) dsts.get(0);
+      IR.Temp t = regs.freshTemp();
+      moves.add(new IR.Move(t, d));
+      for (int j = 0; j < srcs.size(); j++)
+        if (srcs.get(j).equals(d))
+          srcs.set(j, t);
+    }
+    copies += moves.size();
+    return moves;
+  }
+
+  // Remove labels no branch refers to, and jumps to the next inst.
+  //
+  static void cleanup(List<IR.Inst> code) {
+    for (boolean changed = true; changed; ) {
+      changed = false;
+      Set<String> targets = new HashSet<>();
+      for (IR.Inst c: code) {
+        if (c instanceof IR.Jump)
+          targets.add(((IR.Jump) c).lab.name);
+        else if (c instanceof IR.CJump)
+          targets.add(((IR.CJump) c).lab.name);
+      }
+      for (int i = code.size() - 1; i >= 0; i--) {
+        IR.Inst c = code.get(i);
+        if (c instanceof IR.LabelDec
+            && !targets.contains(((IR.LabelDec) c).lab.name)) {
+          code.remove(i);
+          changed = true;
+        } else if (c instanceof IR.Jump && i + 1 < code.size()
+                   && code.get(i + 1) instanceof IR.LabelDec
+                   && ((IR.LabelDec) code.get(i + 1)).lab.name
+                        .equals(((IR.Jump) c).lab.name)) {
+          code.remove(i);
+          changed = true;
+        }
+      }
+    }
+  }
+
+}
@@ -0,0 +1,92 @@
+// CS322 HW2
+//
+
+// Self-recursive tail call elimination.
+//
+// A call to the function itself whose result is immediately returned,
+//
+//   t = call _f(a1, ..., an)         call _f(a1, ..., an)
+//   return t                 or      return
+//
+// is replaced by assigning the args to the function's params and jumping
+// back to a label placed at the start of the body. Args that read a
+// param are copied to fresh temps first, so that the param assignments
+// behave like a parallel move.
+//
+package ir;
+import java.util.*;
+
+public class TailCalls {
+
+  public static int eliminated = 0;	// number of calls turned into jumps
+
+  // Program ---
+  //
+  public static IR.Program run(IR.Program p) {
+    IR.Func[] out = new IR.Func[p.funcs.length];
+    for (int i = 0; i < out.length; i++)
+      out[i] = run(p.funcs[i]);
+    return new IR.Program(p.data, out);
+  }
+
+  // Func ---
+  //
+  public static IR.Func run(IR.Func f) {
+    IR.Label entry = null;
+    Set<IR.Id> params = new HashSet<>(Arrays.asList(f.params));
+    List<IR.Inst> code = new ArrayList<>();
+    for (int i = 0; i < f.code.length; i++) {
+      IR.Inst c = f.code[i];
+      if (!isTailCall(f, i)) {
+        code.add(c);
+        continue;
+      }
+      if (entry == null)
+        entry = IRUtil.freshLabel(IRUtil.labelNames(f.code));
+      IR.Src[] args = ((IR.Call) c).args;
+      List<IR.Inst> moves = new ArrayList<>();
+      for (int k = 0; k < args.length; k++) {
+        IR.Src arg = args[k];
+        if (arg.equals(f.params[k]))
+          continue;
+        if (params.contains(arg)) {
+          IR.Temp t = f.regs().freshTemp();
+          code.add(new IR.Move(t, arg));
+          arg = t;
+        }
+        moves.add(new IR.Move(f.params[k], arg));
+      }
+      code.addAll(moves);
+      code.add(new IR.Jump(entry));
+      eliminated++;
+    }
+    if (entry == null)
+      return f;
+    code.add(0, new IR.LabelDec(entry));
+    IRUtil.guardEntry(code);
+    return new IR.Func(f.gname, Arrays.asList(f.params),
+                       Arrays.asList(f.locals), code, f.regs());
+  }
+
+  // Return true if code[i] is a call to f whose result (if any) is
+  // returned right after it. Labels in between do not matter, since
+  // control falls through them.
+  //
+  static boolean isTailCall(IR.Func f, int i) {
+    if (!(f.code[i] instanceof IR.Call))
+      return false;
+    IR.Call c = (IR.Call) f.code[i];
+    if (c.ind || !(c.tgt instanceof IR.Global)
+        || !((IR.Global) c.tgt).s.equals(f.gname.s)
+        || c.args.length != f.params.length)
+      return false;
+    int j = i + 1;
+    while (j < f.code.length && f.code[j] instanceof IR.LabelDec)
+      j++;
+    if (j == f.code.length || !(f.code[j] instanceof IR.Return))
+      return false;
+    IR.Src val = ((IR.Return) f.code[j]).val;
+    return c.rdst == null ? val == null : c.rdst.equals(val);
+  }
+
+}